@@ -6,6 +6,8 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteDatabase;
 
+import com.example.usimaps.map.ContractionHierarchy;
+import com.example.usimaps.map.DistanceTable;
 import com.example.usimaps.map.Graph;
 
 import java.text.SimpleDateFormat;
@@ -21,7 +23,7 @@ import kotlin.Triple;
 public class DatabaseHelper extends SQLiteOpenHelper {
     // Database
     private static final String DATABASE_NAME = "usi_maps.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 3;
 
     // Table and columns
     public static final String TABLE_IMAGES = "images";
@@ -37,6 +39,14 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public static final String COLUMN_MAP_NAME = "map_name";
     public static final String COLUMN_MAP_OBJECT = "map_object";
 
+    // Contraction hierarchies table: preprocessed routing data of the maps
+    public static final String TABLE_HIERARCHIES = "hierarchies";
+    public static final String COLUMN_HIERARCHY_OBJECT = "hierarchy_object";
+
+    // Distance tables table: precomputed routes between the searchable locations of the maps
+    public static final String TABLE_DISTANCES = "distances";
+    public static final String COLUMN_DISTANCES_OBJECT = "distances_object";
+
     // History table
     public static final String TABLE_HISTORY = "history";
     public static final String COLUMN_DATE = "date";
@@ -61,6 +71,20 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                     COLUMN_MAP_OBJECT + " TEXT" +
                     ");";
 
+    private static final String CREATE_HIERARCHIES_TABLE =
+            "CREATE TABLE " + TABLE_HIERARCHIES + " (" +
+                    COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    COLUMN_MAP_NAME + " TEXT UNIQUE, " +
+                    COLUMN_HIERARCHY_OBJECT + " BLOB" +
+                    ");";
+
+    private static final String CREATE_DISTANCES_TABLE =
+            "CREATE TABLE " + TABLE_DISTANCES + " (" +
+                    COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    COLUMN_MAP_NAME + " TEXT UNIQUE, " +
+                    COLUMN_DISTANCES_OBJECT + " BLOB" +
+                    ");";
+
     private static final String CREATE_HISTORY_TABLE =
             "CREATE TABLE " + TABLE_HISTORY + " (" +
                     COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
@@ -83,15 +107,19 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(TABLE_CREATE);
         db.execSQL(CREATE_MAPS_TABLE);
         db.execSQL(CREATE_HISTORY_TABLE);
+        db.execSQL(CREATE_HIERARCHIES_TABLE);
+        db.execSQL(CREATE_DISTANCES_TABLE);
     }
 
-    //Figure this out exactly
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_IMAGES);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_MAPS);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_HISTORY);
-        onCreate(db);
+        // only add the new tables, so that the stored maps and the history are kept
+        if (oldVersion < 2) {
+            db.execSQL(CREATE_HIERARCHIES_TABLE);
+        }
+        if (oldVersion < 3) {
+            db.execSQL(CREATE_DISTANCES_TABLE);
+        }
     }
 
     /**
@@ -154,6 +182,111 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         return graph;
     }
 
+    /**
+     * Stores the contraction hierarchy of a map, replacing the previous one
+     * @param mapName Name of the map
+     * @param hierarchy Contraction hierarchy to store
+     */
+    public void updateHierarchy(String mapName, ContractionHierarchy hierarchy) {
+        updateRoutingData(TABLE_HIERARCHIES, COLUMN_HIERARCHY_OBJECT, mapName, ContractionHierarchy.serialize(hierarchy));
+    }
+
+    /**
+     * Load the contraction hierarchy of a map from the database
+     * @param mapName Name of the map
+     * @return the contraction hierarchy, or null if none is stored
+     */
+    public ContractionHierarchy loadHierarchy(String mapName) {
+        byte[] data = loadRoutingData(TABLE_HIERARCHIES, COLUMN_HIERARCHY_OBJECT, mapName);
+        return data == null ? null : ContractionHierarchy.deserialize(data);
+    }
+
+    /**
+     * Stores the distance table of a map, replacing the previous one
+     * @param mapName Name of the map
+     * @param table Distance table to store
+     */
+    public void updateDistanceTable(String mapName, DistanceTable table) {
+        updateRoutingData(TABLE_DISTANCES, COLUMN_DISTANCES_OBJECT, mapName, DistanceTable.serialize(table));
+    }
+
+    /**
+     * Load the distance table of a map from the database
+     * @param mapName Name of the map
+     * @return the distance table, or null if none is stored
+     */
+    public DistanceTable loadDistanceTable(String mapName) {
+        byte[] data = loadRoutingData(TABLE_DISTANCES, COLUMN_DISTANCES_OBJECT, mapName);
+        return data == null ? null : DistanceTable.deserialize(data);
+    }
+
+    /**
+     * Deletes the preprocessed routing data of a map: call it whenever the map changes
+     * @param mapName Name of the map
+     */
+    public void deleteRoutingData(String mapName) {
+        SQLiteDatabase db = getWritableDatabase();
+        String selection = DatabaseHelper.COLUMN_MAP_NAME + " = ?";
+        String[] selectionArgs = { mapName };
+        db.delete(DatabaseHelper.TABLE_HIERARCHIES, selection, selectionArgs);
+        db.delete(DatabaseHelper.TABLE_DISTANCES, selection, selectionArgs);
+        db.close();
+    }
+
+    /**
+     * Stores preprocessed routing data of a map, replacing the previous one
+     * @param table Table of the data
+     * @param column Column of the data
+     * @param mapName Name of the map
+     * @param data Serialized data
+     */
+    private void updateRoutingData(String table, String column, String mapName, byte[] data) {
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.COLUMN_MAP_NAME, mapName);
+        values.put(column, data);
+
+        String selection = DatabaseHelper.COLUMN_MAP_NAME + " = ?";
+        String[] selectionArgs = { mapName };
+        int count = db.update(table, values, selection, selectionArgs);
+        if (count == 0) {
+            db.insert(table, null, values);
+        }
+        db.close();
+    }
+
+    /**
+     * Loads preprocessed routing data of a map
+     * @param table Table of the data
+     * @param column Column of the data
+     * @param mapName Name of the map
+     * @return the serialized data, or null if none is stored
+     */
+    private byte[] loadRoutingData(String table, String column, String mapName) {
+        SQLiteDatabase db = getReadableDatabase();
+        String[] projection = {
+                column
+        };
+        String selection = DatabaseHelper.COLUMN_MAP_NAME + " = ?";
+        String[] selectionArgs = {mapName};
+        Cursor cursor = db.query(
+                table,
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                null
+        );
+        byte[] data = null;
+        if (cursor.moveToNext()) {
+            data = cursor.getBlob(cursor.getColumnIndexOrThrow(column));
+        }
+        cursor.close();
+        db.close();
+        return data;
+    }
+
     public List<String> getMapNames() {
         // get the names of the maps in the database
         SQLiteDatabase db = getReadableDatabase();
@@ -0,0 +1,168 @@
+package com.example.usimaps.map;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import kotlin.Pair;
+
+/**
+ * AlternativePaths class
+ * The k cheapest loopless paths between two vertices, with Yen's algorithm: every path after the
+ * first leaves a cheaper path at one of its vertices, the spur, and reaches the destination without
+ * going back through the vertices before the spur or repeating the turns the cheaper paths took there.
+ * Paths costing more than a detour ratio times the cheapest one are never searched, and the search
+ * stops with the paths found so far when its time budget runs out.
+ */
+final class AlternativePaths {
+    private final RoutingGraph graph;
+    private final int destination;
+    private final SearchWorkspace workspace;
+
+    private AlternativePaths(RoutingGraph graph, int destination) {
+        this.graph = graph;
+        this.destination = destination;
+        this.workspace = graph.getWorkspace();
+    }
+
+    /**
+     * Finds the cheapest paths between two vertices, sorted by cost
+     * @param graph: the routing snapshot
+     * @param source: the id of the source vertex
+     * @param destination: the id of the destination vertex
+     * @param profile: the routing profile deciding the cost of the edges
+     * @param k: the largest number of paths
+     * @param maxDetour: the largest ratio between the cost of a path and the cost of the cheapest one
+     * @param timeBudgetNanos: the time after which no more paths are searched
+     * @return the paths and their costs, empty if there is no path
+     */
+    static List<Pair<List<Vertex>, Double>> find(RoutingGraph graph, int source, int destination, RoutingProfile profile,
+                                                 int k, double maxDetour, long timeBudgetNanos) {
+        long deadline = System.nanoTime() + timeBudgetNanos;
+        AlternativePaths search = new AlternativePaths(graph, destination);
+        List<Pair<List<Vertex>, Double>> result = new ArrayList<>();
+        if (k <= 0) {
+            return result;
+        }
+
+        search.workspace.clearBans();
+        double best = graph.restrictedSearch(source, destination, profile, search.workspace, new int[0], 0, Double.POSITIVE_INFINITY);
+        if (best < 0) {
+            return result;
+        }
+        List<Path> found = new ArrayList<>();
+        found.add(search.readPath(null, 0));
+        double maxCost = best * maxDetour;
+
+        PriorityQueue<Path> candidates = new PriorityQueue<>((a, b) -> Double.compare(a.cost, b.cost));
+        Set<List<Integer>> seen = new HashSet<>();
+        seen.add(found.get(0).key());
+        int[] bannedTargets = new int[k];
+
+        while (found.size() < k && System.nanoTime() < deadline) {
+            Path last = found.get(found.size() - 1);
+            for (int i = 0; i < last.vertices.length - 1 && System.nanoTime() < deadline; i++) {
+                int spur = last.vertices[i];
+                // the paths found with the same root cannot take the same edge from the spur again
+                int bannedCount = 0;
+                for (Path p : found) {
+                    if (p.vertices.length > i + 1 && p.startsWith(last, i)) {
+                        bannedTargets[bannedCount++] = p.vertices[i + 1];
+                    }
+                }
+                // the path cannot go back to its root
+                search.workspace.clearBans();
+                for (int j = 0; j < i; j++) {
+                    search.workspace.ban(last.vertices[j]);
+                }
+                double rootCost = last.costs[i];
+                double spurCost = graph.restrictedSearch(spur, destination, profile, search.workspace,
+                        bannedTargets, bannedCount, maxCost - rootCost);
+                if (spurCost < 0) {
+                    continue;
+                }
+                Path candidate = search.readPath(last, i);
+                if (seen.add(candidate.key())) {
+                    candidates.add(candidate);
+                }
+            }
+            if (candidates.isEmpty()) {
+                break;
+            }
+            found.add(candidates.poll());
+        }
+
+        for (Path p : found) {
+            List<Vertex> vertices = new ArrayList<>();
+            for (int v : p.vertices) {
+                vertices.add(graph.getVertex(v));
+            }
+            result.add(new Pair<>(vertices, p.cost));
+        }
+        return result;
+    }
+
+    /**
+     * Reads the path found by the last search in the workspace, after the root of another path
+     * @param root: the path giving the root, null if there is none
+     * @param spurIndex: the index of the spur in the root path, where the search started
+     */
+    private Path readPath(Path root, int spurIndex) {
+        int length = 0;
+        for (int v = destination; v != -1; v = workspace.previous[v]) {
+            length++;
+        }
+        int[] vertices = new int[spurIndex + length];
+        double[] costs = new double[spurIndex + length];
+        double rootCost = 0;
+        if (root != null) {
+            System.arraycopy(root.vertices, 0, vertices, 0, spurIndex);
+            System.arraycopy(root.costs, 0, costs, 0, spurIndex);
+            rootCost = root.costs[spurIndex];
+        }
+        int i = vertices.length - 1;
+        for (int v = destination; v != -1; v = workspace.previous[v]) {
+            vertices[i] = v;
+            costs[i] = rootCost + workspace.distance[v];
+            i--;
+        }
+        return new Path(vertices, costs);
+    }
+
+    /**
+     * Path as vertex ids, with the cost of the path up to every vertex
+     */
+    private static final class Path {
+        final int[] vertices;
+        final double[] costs;
+        final double cost;
+
+        Path(int[] vertices, double[] costs) {
+            this.vertices = vertices;
+            this.costs = costs;
+            this.cost = costs[costs.length - 1];
+        }
+
+        /**
+         * Returns whether the first vertices of this path, up to an index, are those of another path
+         */
+        boolean startsWith(Path other, int index) {
+            for (int j = 0; j <= index; j++) {
+                if (vertices[j] != other.vertices[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        List<Integer> key() {
+            List<Integer> key = new ArrayList<>(vertices.length);
+            for (int v : vertices) {
+                key.add(v);
+            }
+            return key;
+        }
+    }
+}
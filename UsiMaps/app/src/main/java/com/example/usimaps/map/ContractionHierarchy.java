@@ -0,0 +1,475 @@
+package com.example.usimaps.map;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import kotlin.Pair;
+
+/**
+ * ContractionHierarchy class
+ * Preprocessed routing snapshot that answers shortest path queries on large maps quickly.
+ * Vertices are contracted one by one, from the least to the most important: when a vertex is removed,
+ * its neighbors are connected by shortcuts unless a path as short (a witness) exists without it.
+ * Connections are contracted first, rooms, doors, stairs and elevators are kept important,
+ * outside vertices are never contracted.
+ * A query is a bidirectional Dijkstra that only moves towards more important vertices,
+ * the shortcuts of the resulting path are unpacked into the original vertices.
+ */
+public final class ContractionHierarchy implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // witness searches give up after settling this many vertices, the shortcut is added anyway
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+    // connections always come before the important vertices in the contraction order
+    private static final double IMPORTANT_PRIORITY = 1e6;
+
+    // signature of the routing snapshot the hierarchy was built for
+    private final long signature;
+    // position of every vertex in the contraction order
+    private final int[] rank;
+    // upward edges, from every vertex to its more important neighbors, in CSR layout
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    // the contracted vertex a shortcut skips, -1 for the edges of the original graph
+    private final int[] middles;
+
+    private ContractionHierarchy(long signature, int[] rank, int[] offsets, int[] targets, double[] weights, int[] middles) {
+        this.signature = signature;
+        this.rank = rank;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.middles = middles;
+    }
+
+    /**
+     * Returns the signature of the routing snapshot the hierarchy was built for
+     */
+    public long getSignature() {
+        return signature;
+    }
+
+    /**
+     * Returns the position of a vertex in the contraction order: the higher, the more important
+     * @param id the id of the vertex
+     * @return the rank of the vertex
+     */
+    public int getRank(int id) {
+        return rank[id];
+    }
+
+    /**
+     * Returns the number of shortcuts added by the contraction
+     */
+    public int getShortcutCount() {
+        int count = 0;
+        for (int middle : middles) {
+            if (middle != -1) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Builds the contraction hierarchy of a routing snapshot
+     * @param graph the routing snapshot
+     * @return the contraction hierarchy
+     */
+    public static ContractionHierarchy build(RoutingGraph graph) {
+        return new Builder(graph).build();
+    }
+
+    /**
+     * Get the shortest path between two vertices of the snapshot the hierarchy was built for
+     * Outside vertices are only used if they are the destination.
+     *
+     * @param graph: the routing snapshot
+     * @param source: the id of the source vertex
+     * @param destination: the id of the destination vertex
+     * @return the shortest path and the weight of the path, or an empty path and -1 if there is no path
+     */
+    public Pair<List<Vertex>, Double> getShortestPath(RoutingGraph graph, final int source, final int destination) {
+        if (source < 0 || destination < 0) {
+            return new Pair<>(new ArrayList<>(), -1.0);
+        }
+        if (source == destination) {
+            return new Pair<>(new ArrayList<>(Collections.singletonList(graph.getVertex(source))), 0.0);
+        }
+        // the previous and next vertices of the workspace are the lower ends of the upward
+        // edges used to reach every vertex, in the forward and in the backward search
+        SearchWorkspace workspace = graph.getWorkspace();
+        workspace.reset();
+        boolean allowOutside = graph.getType(destination) == VertexType.OUTSIDE;
+
+        IndexedHeap forwardHeap = workspace.heap;
+        IndexedHeap backwardHeap = workspace.backwardHeap;
+        workspace.setDistance(source, 0, -1, -1);
+        workspace.setBackward(destination, 0, -1, -1);
+        forwardHeap.update(source, 0);
+        backwardHeap.update(destination, 0);
+
+        double best = Double.POSITIVE_INFINITY;
+        while (true) {
+            double forwardMin = forwardHeap.peekKey();
+            double backwardMin = backwardHeap.peekKey();
+            // each search stops when its queue cannot improve the best meeting point
+            if (Math.min(forwardMin, backwardMin) >= best) {
+                break;
+            }
+            boolean isForward = forwardMin <= backwardMin;
+            IndexedHeap heap = isForward ? forwardHeap : backwardHeap;
+            int current = heap.poll();
+            if (!isForward && graph.getType(current) == VertexType.OUTSIDE && !allowOutside) {
+                // edges into outside vertices cannot be used
+                continue;
+            }
+            double currentDist = isForward ? workspace.distance[current] : workspace.backward[current];
+            for (int e = offsets[current]; e < offsets[current + 1]; e++) {
+                int w = targets[e];
+                // ignore outside vertices
+                if (isForward && graph.getType(w) == VertexType.OUTSIDE && !allowOutside) {
+                    continue;
+                }
+                double newDist = currentDist + weights[e];
+                if (newDist < (isForward ? workspace.getDistance(w) : workspace.getBackward(w))) {
+                    if (isForward) {
+                        workspace.setDistance(w, newDist, current, e);
+                    } else {
+                        workspace.setBackward(w, newDist, current, e);
+                    }
+                    heap.update(w, newDist);
+                    double other = isForward ? workspace.getBackward(w) : workspace.getDistance(w);
+                    if (newDist + other < best) {
+                        best = newDist + other;
+                        workspace.meeting = w;
+                    }
+                }
+            }
+        }
+
+        int meeting = workspace.meeting;
+        if (meeting == -1) {
+            return new Pair<>(new ArrayList<>(), -1.0);
+        }
+
+        // upward edges from the source to the meeting vertex
+        List<Integer> forwardVertices = new ArrayList<>();
+        for (int v = meeting; v != source; v = workspace.previous[v]) {
+            forwardVertices.add(v);
+        }
+        List<Vertex> path = new ArrayList<>();
+        path.add(graph.getVertex(source));
+        for (int i = forwardVertices.size() - 1; i >= 0; i--) {
+            int v = forwardVertices.get(i);
+            unpack(graph, workspace.previous[v], workspace.previousEdge[v], path);
+        }
+        // upward edges from the destination to the meeting vertex, walked downwards
+        for (int v = meeting; v != destination; v = workspace.next[v]) {
+            unpackReversed(graph, workspace.next[v], workspace.nextEdge[v], path);
+        }
+        return new Pair<>(path, best);
+    }
+
+    /**
+     * Appends the vertices of an upward edge, from its lower vertex (excluded) to its target (included)
+     * @param graph the routing snapshot
+     * @param from the lower vertex of the edge
+     * @param edge the upward edge
+     * @param path the path to extend
+     */
+    private void unpack(RoutingGraph graph, int from, int edge, List<Vertex> path) {
+        int middle = middles[edge];
+        if (middle == -1) {
+            path.add(graph.getVertex(targets[edge]));
+            return;
+        }
+        // from -> middle -> target, both halves are upward edges of the middle vertex
+        unpackReversed(graph, middle, findEdge(middle, from), path);
+        unpack(graph, middle, findEdge(middle, targets[edge]), path);
+    }
+
+    /**
+     * Appends the vertices of an upward edge walked downwards, from its target (excluded) to its lower vertex (included)
+     * @param graph the routing snapshot
+     * @param from the lower vertex of the edge
+     * @param edge the upward edge
+     * @param path the path to extend
+     */
+    private void unpackReversed(RoutingGraph graph, int from, int edge, List<Vertex> path) {
+        int middle = middles[edge];
+        if (middle == -1) {
+            path.add(graph.getVertex(from));
+            return;
+        }
+        // target -> middle -> from
+        unpackReversed(graph, middle, findEdge(middle, targets[edge]), path);
+        unpack(graph, middle, findEdge(middle, from), path);
+    }
+
+    /**
+     * Returns the upward edge from a vertex to a more important one
+     */
+    private int findEdge(int from, int to) {
+        for (int e = offsets[from]; e < offsets[from + 1]; e++) {
+            if (targets[e] == to) {
+                return e;
+            }
+        }
+        throw new IllegalStateException("Missing edge in the contraction hierarchy");
+    }
+
+    /**
+     * Serialize a contraction hierarchy to a byte array
+     * @param hierarchy the contraction hierarchy
+     * @return the byte array
+     */
+    public static byte[] serialize(ContractionHierarchy hierarchy) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject(hierarchy);
+            oos.close();
+            return baos.toByteArray();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Deserialize a contraction hierarchy from a byte array
+     * @param data the byte array
+     * @return the contraction hierarchy
+     */
+    public static ContractionHierarchy deserialize(byte[] data) {
+        try {
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+            return (ContractionHierarchy) ois.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Edge of the graph being contracted: the lightest edge between two vertices
+     */
+    private static final class Arc {
+        final double weight;
+        final int middle;
+
+        Arc(double weight, int middle) {
+            this.weight = weight;
+            this.middle = middle;
+        }
+    }
+
+    /**
+     * Contracts the vertices of a routing snapshot
+     */
+    private static final class Builder {
+        private final RoutingGraph graph;
+        private final int n;
+        // remaining graph: the neighbors of every vertex that is not contracted yet
+        private final List<Map<Integer, Arc>> adjacency;
+        // upward edges of every contracted vertex
+        private final List<Map<Integer, Arc>> upward;
+        private final int[] contractedNeighbors;
+        private final int[] rank;
+
+        // witness search state, reset with a new stamp for every search
+        private final double[] witnessDistance;
+        private final int[] witnessStamp;
+        private final IndexedHeap witnessHeap;
+        private int stamp = 0;
+
+        Builder(RoutingGraph graph) {
+            this.graph = graph;
+            this.n = graph.getVertexCount();
+            adjacency = new ArrayList<>(n);
+            upward = new ArrayList<>(n);
+            for (int v = 0; v < n; v++) {
+                Map<Integer, Arc> neighbors = new HashMap<>();
+                for (int e = graph.getFirstEdge(v); e < graph.getEndEdge(v); e++) {
+                    int w = graph.getTarget(e);
+                    Arc arc = neighbors.get(w);
+                    if (w != v && (arc == null || graph.getWeight(e) < arc.weight)) {
+                        neighbors.put(w, new Arc(graph.getWeight(e), -1));
+                    }
+                }
+                adjacency.add(neighbors);
+                upward.add(null);
+            }
+            contractedNeighbors = new int[n];
+            rank = new int[n];
+            witnessDistance = new double[n];
+            witnessStamp = new int[n];
+            witnessHeap = new IndexedHeap(n);
+        }
+
+        ContractionHierarchy build() {
+            // contract the vertices in order of priority, updating the priority lazily
+            IndexedHeap queue = new IndexedHeap(n);
+            List<Integer> outside = new ArrayList<>();
+            for (int v = 0; v < n; v++) {
+                if (graph.getType(v) == VertexType.OUTSIDE) {
+                    outside.add(v);
+                } else {
+                    queue.update(v, priority(v));
+                }
+            }
+            int order = 0;
+            while (!queue.isEmpty()) {
+                int v = queue.poll();
+                double priority = priority(v);
+                if (priority > queue.peekKey()) {
+                    queue.update(v, priority);
+                    continue;
+                }
+                contract(v, false);
+                rank[v] = order++;
+            }
+            // outside vertices stay on top of the hierarchy
+            for (int v : outside) {
+                upward.set(v, new HashMap<>(adjacency.get(v)));
+                for (int w : adjacency.get(v).keySet()) {
+                    adjacency.get(w).remove(v);
+                }
+                rank[v] = order++;
+            }
+
+            int[] offsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                offsets[v + 1] = offsets[v] + upward.get(v).size();
+            }
+            int[] targets = new int[offsets[n]];
+            double[] weights = new double[offsets[n]];
+            int[] middles = new int[offsets[n]];
+            for (int v = 0; v < n; v++) {
+                int e = offsets[v];
+                for (Map.Entry<Integer, Arc> entry : upward.get(v).entrySet()) {
+                    targets[e] = entry.getKey();
+                    weights[e] = entry.getValue().weight;
+                    middles[e] = entry.getValue().middle;
+                    e++;
+                }
+            }
+            return new ContractionHierarchy(graph.getSignature(), rank, offsets, targets, weights, middles);
+        }
+
+        /**
+         * Priority of a vertex: connections first, then the vertices whose contraction adds
+         * the fewest shortcuts compared to the edges it removes, spread over the graph
+         */
+        private double priority(int v) {
+            int shortcuts = contract(v, true);
+            double priority = shortcuts - adjacency.get(v).size() + contractedNeighbors[v];
+            if (graph.getType(v) != VertexType.CONNECTION) {
+                priority += IMPORTANT_PRIORITY;
+            }
+            return priority;
+        }
+
+        /**
+         * Contracts a vertex: connects its neighbors with shortcuts where no witness exists
+         * @param v the vertex
+         * @param simulate whether to only count the shortcuts without contracting the vertex
+         * @return the number of shortcuts
+         */
+        private int contract(int v, boolean simulate) {
+            Map<Integer, Arc> neighbors = adjacency.get(v);
+            List<Integer> ids = new ArrayList<>(neighbors.keySet());
+            double maxWeight = 0;
+            for (Arc arc : neighbors.values()) {
+                maxWeight = Math.max(maxWeight, arc.weight);
+            }
+
+            int shortcuts = 0;
+            List<int[]> pairs = new ArrayList<>();
+            List<Double> pairWeights = new ArrayList<>();
+            for (int i = 0; i < ids.size(); i++) {
+                int u = ids.get(i);
+                double toU = neighbors.get(u).weight;
+                witnessSearch(u, v, toU + maxWeight);
+                for (int j = i + 1; j < ids.size(); j++) {
+                    int w = ids.get(j);
+                    double viaV = toU + neighbors.get(w).weight;
+                    if (witnessStamp[w] == stamp && witnessDistance[w] <= viaV) {
+                        // the witness is as short as the path through v
+                        continue;
+                    }
+                    shortcuts++;
+                    pairs.add(new int[]{u, w});
+                    pairWeights.add(viaV);
+                }
+            }
+            if (simulate) {
+                return shortcuts;
+            }
+
+            upward.set(v, new HashMap<>(neighbors));
+            for (int u : ids) {
+                adjacency.get(u).remove(v);
+                contractedNeighbors[u]++;
+            }
+            for (int i = 0; i < pairs.size(); i++) {
+                int u = pairs.get(i)[0];
+                int w = pairs.get(i)[1];
+                Arc shortcut = new Arc(pairWeights.get(i), v);
+                adjacency.get(u).put(w, shortcut);
+                adjacency.get(w).put(u, shortcut);
+            }
+            adjacency.set(v, new HashMap<>());
+            return shortcuts;
+        }
+
+        /**
+         * Dijkstra from a vertex in the remaining graph without the vertex being contracted.
+         * Outside vertices can be reached but are never used as intermediate vertices.
+         * @param source the start of the search
+         * @param excluded the vertex being contracted
+         * @param limit the search stops at this distance
+         */
+        private void witnessSearch(int source, int excluded, double limit) {
+            stamp++;
+            witnessHeap.clear();
+            witnessDistance[source] = 0;
+            witnessStamp[source] = stamp;
+            witnessHeap.update(source, 0);
+            int settled = 0;
+            while (!witnessHeap.isEmpty() && settled < WITNESS_SETTLE_LIMIT) {
+                if (witnessHeap.peekKey() > limit) {
+                    break;
+                }
+                int current = witnessHeap.poll();
+                settled++;
+                if (current != source && graph.getType(current) == VertexType.OUTSIDE) {
+                    continue;
+                }
+                for (Map.Entry<Integer, Arc> arc : adjacency.get(current).entrySet()) {
+                    int w = arc.getKey();
+                    if (w == excluded) {
+                        continue;
+                    }
+                    double newDist = witnessDistance[current] + arc.getValue().weight;
+                    if (witnessStamp[w] != stamp || newDist < witnessDistance[w]) {
+                        witnessDistance[w] = newDist;
+                        witnessStamp[w] = stamp;
+                        witnessHeap.update(w, newDist);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.usimaps.map;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import kotlin.Pair;
+
+/**
+ * DistanceTable class
+ * Precomputed one-to-all shortest paths from the searchable vertices (rooms, doors, outside) of a map.
+ * Every row holds the distance to every vertex and the previous vertex on the path, so the length
+ * of a route is a lookup and the route is rebuilt by following the previous vertices.
+ * The rows are computed in parallel on a fork-join pool, one Dijkstra per source.
+ * Routes through outside vertices are not stored, they are only used when they are the destination.
+ */
+public final class DistanceTable implements Serializable {
+    // 2: the distances are doubles, as in the searches
+    private static final long serialVersionUID = 2L;
+
+    // sources computed by a single fork-join task
+    private static final int SOURCES_PER_TASK = 4;
+
+    // signature of the routing snapshot the table was built for
+    private final long signature;
+    // row of every vertex, -1 if the vertex is not a source
+    private final int[] rows;
+    private final double[][] distances;
+    private final int[][] previous;
+
+    private DistanceTable(long signature, int[] rows, double[][] distances, int[][] previous) {
+        this.signature = signature;
+        this.rows = rows;
+        this.distances = distances;
+        this.previous = previous;
+    }
+
+    /**
+     * Returns the signature of the routing snapshot the table was built for
+     */
+    public long getSignature() {
+        return signature;
+    }
+
+    /**
+     * Returns whether the table holds the routes from a vertex
+     * @param source the id of the vertex
+     */
+    public boolean hasSource(int source) {
+        return source >= 0 && source < rows.length && rows[source] != -1;
+    }
+
+    /**
+     * Builds the distance table of the searchable vertices of a routing snapshot
+     * @param graph the routing snapshot
+     * @return the distance table
+     */
+    public static DistanceTable build(final RoutingGraph graph) {
+        int n = graph.getVertexCount();
+        int[] rows = new int[n];
+        Arrays.fill(rows, -1);
+        List<Integer> sources = new ArrayList<>();
+        for (int v = 0; v < n; v++) {
+            VertexType type = graph.getType(v);
+            if (type != VertexType.CONNECTION && type != VertexType.STAIR && type != VertexType.ELEVATOR) {
+                rows[v] = sources.size();
+                sources.add(v);
+            }
+        }
+        final int[] sourceIds = new int[sources.size()];
+        for (int i = 0; i < sourceIds.length; i++) {
+            sourceIds[i] = sources.get(i);
+        }
+        double[][] distances = new double[sourceIds.length][];
+        int[][] previous = new int[sourceIds.length][];
+        ForkJoinPool.commonPool().invoke(new RowsTask(graph, sourceIds, 0, sourceIds.length, distances, previous));
+        return new DistanceTable(graph.getSignature(), rows, distances, previous);
+    }
+
+    /**
+     * Returns the length of the shortest path between two vertices
+     * @param source the id of the source, it must be a source of the table
+     * @param destination the id of the destination
+     * @return the length of the path, or -1 if there is no path
+     */
+    public double getDistance(int source, int destination) {
+        double distance = distances[rows[source]][destination];
+        return distance == Double.POSITIVE_INFINITY ? -1 : distance;
+    }
+
+    /**
+     * Get the shortest path between two vertices from the table
+     * @param graph: the routing snapshot the table was built for
+     * @param source: the id of the source, it must be a source of the table
+     * @param destination: the id of the destination
+     * @return the shortest path and the weight of the path, or an empty path and -1 if there is no path
+     */
+    public Pair<List<Vertex>, Double> getShortestPath(RoutingGraph graph, int source, int destination) {
+        double distance = getDistance(source, destination);
+        if (distance < 0) {
+            return new Pair<>(new ArrayList<>(), -1.0);
+        }
+        return new Pair<>(graph.toPath(previous[rows[source]], destination), distance);
+    }
+
+    /**
+     * Serialize a distance table to a byte array
+     * @param table the distance table
+     * @return the byte array
+     */
+    public static byte[] serialize(DistanceTable table) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject(table);
+            oos.close();
+            return baos.toByteArray();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Deserialize a distance table from a byte array
+     * @param data the byte array
+     * @return the distance table
+     */
+    public static DistanceTable deserialize(byte[] data) {
+        try {
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+            return (DistanceTable) ois.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Fork-join task computing the rows of a range of sources, split in halves until it is small enough
+     */
+    private static final class RowsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RoutingGraph graph;
+        private final int[] sources;
+        private final int from;
+        private final int to;
+        private final double[][] distances;
+        private final int[][] previous;
+
+        RowsTask(RoutingGraph graph, int[] sources, int from, int to, double[][] distances, int[][] previous) {
+            this.graph = graph;
+            this.sources = sources;
+            this.from = from;
+            this.to = to;
+            this.distances = distances;
+            this.previous = previous;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SOURCES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RowsTask(graph, sources, from, middle, distances, previous),
+                        new RowsTask(graph, sources, middle, to, distances, previous));
+                return;
+            }
+            int n = graph.getVertexCount();
+            for (int i = from; i < to; i++) {
+                double[] distance = new double[n];
+                int[] row = new int[n];
+                graph.computeShortestPathTree(sources[i], false, RoutingProfile.SHORTEST, distance, row);
+                distances[i] = distance;
+                previous[i] = row;
+            }
+        }
+    }
+}
@@ -1,17 +1,27 @@
 package com.example.usimaps.map;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Edge class
  * Edges connect two vertices and have a weight, which is the distance between the two vertices in meters.
+ * A compacted edge replaces a chain of connection vertices, see Graph.compact: it keeps the edges of
+ * the chain, its pieces, and their vertices as a polyline from the source to the destination.
  */
 public class Edge implements Serializable {
+    // keep maps stored by earlier versions of the app loadable
+    private static final long serialVersionUID = -3793088107864750090L;
+
     // Edge attributes
     private final Vertex source;
     private final Vertex destination;
     private final double weight;
     private String name = "";
+    // edges of the chain from the source to the destination, null if the edge is not compacted
+    private final ArrayList<Edge> pieces;
 
     /**
      * Constructor
@@ -20,10 +30,22 @@ public class Edge implements Serializable {
      * @param weight Weight
      */
     public Edge(Vertex source, Vertex destination, double weight, String name) {
+        this(source, destination, weight, name, Collections.<Edge>emptyList());
+    }
+
+    /**
+     * Constructor of a compacted edge
+     * @param source Source vertex
+     * @param destination Destination vertex
+     * @param weight Weight, the sum of the weights of the pieces
+     * @param pieces Edges of the chain from the source to the destination, empty if the edge is not compacted
+     */
+    public Edge(Vertex source, Vertex destination, double weight, String name, List<Edge> pieces) {
         this.source = source;
         this.destination = destination;
         this.weight = weight;
         this.name = name;
+        this.pieces = pieces.isEmpty() ? null : new ArrayList<>(pieces);
     }
     // Getters
     public Vertex getSource() {
@@ -41,4 +63,19 @@ public class Edge implements Serializable {
     public String getName() {
         return name;
     }
+
+    public List<Edge> getPieces() {
+        return pieces == null ? Collections.<Edge>emptyList() : Collections.unmodifiableList(pieces);
+    }
+
+    /**
+     * Returns the vertices of the polyline between the source and the destination, empty if the edge is not compacted
+     */
+    public List<Vertex> getVia() {
+        List<Vertex> via = new ArrayList<>();
+        for (int i = 0; pieces != null && i < pieces.size() - 1; i++) {
+            via.add(pieces.get(i).getDestination());
+        }
+        return via;
+    }
 }
@@ -0,0 +1,149 @@
+package com.example.usimaps.map;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import kotlin.Pair;
+
+/**
+ * EdgeClosures class
+ * Temporary changes to the edges of a map, e.g. a corridor closed for works or a crowded stairwell.
+ * An edge is found by its name, which closes every edge with that name, or by its two vertices.
+ * A closed edge cannot be used, a re-weighted edge costs its weight times a factor in every routing
+ * profile; the factors of the name and of the vertices of an edge multiply. Closures are set on a
+ * Graph with setClosures, they change its routes but not its vertices and edges, and are not saved.
+ */
+public final class EdgeClosures {
+    private final Map<String, Double> names;
+    // edges by the names of their vertices, the smaller name first
+    private final Map<Pair<String, String>, Double> edges;
+
+    /**
+     * Constructor, without closures
+     */
+    public EdgeClosures() {
+        names = new HashMap<>();
+        edges = new HashMap<>();
+    }
+
+    /**
+     * Copy constructor
+     * @param other: the closures to copy
+     */
+    public EdgeClosures(EdgeClosures other) {
+        names = new HashMap<>(other.names);
+        edges = new HashMap<>(other.edges);
+    }
+
+    /**
+     * Closes the edges with the given name
+     * @param name: the name of the edges
+     */
+    public void close(String name) {
+        setFactor(name, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Closes the edges between two vertices
+     * @param v1: a vertex of the edges
+     * @param v2: the other vertex
+     */
+    public void close(Vertex v1, Vertex v2) {
+        setFactor(v1, v2, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Multiplies the cost of the edges with the given name, a factor of 1 opens them again
+     * @param name: the name of the edges
+     * @param factor: the factor, positive
+     */
+    public void setFactor(String name, double factor) {
+        checkFactor(factor);
+        if (factor == 1) {
+            names.remove(name);
+        } else {
+            names.put(name, factor);
+        }
+    }
+
+    /**
+     * Multiplies the cost of the edges between two vertices, a factor of 1 opens them again
+     * @param v1: a vertex of the edges
+     * @param v2: the other vertex
+     * @param factor: the factor, positive
+     */
+    public void setFactor(Vertex v1, Vertex v2, double factor) {
+        checkFactor(factor);
+        Pair<String, String> key = key(v1, v2);
+        if (factor == 1) {
+            edges.remove(key);
+        } else {
+            edges.put(key, factor);
+        }
+    }
+
+    /**
+     * Opens the edges with the given name again
+     * @param name: the name of the edges
+     */
+    public void open(String name) {
+        names.remove(name);
+    }
+
+    /**
+     * Opens the edges between two vertices again
+     * @param v1: a vertex of the edges
+     * @param v2: the other vertex
+     */
+    public void open(Vertex v1, Vertex v2) {
+        edges.remove(key(v1, v2));
+    }
+
+    /**
+     * Returns whether no edge is closed or re-weighted
+     */
+    public boolean isEmpty() {
+        return names.isEmpty() && edges.isEmpty();
+    }
+
+    /**
+     * Returns the factor of an edge, infinity if it is closed. The factor of a compacted edge
+     * is the average of the factors of its pieces, weighted by their weights.
+     * @param e: the edge
+     */
+    double getFactor(Edge e) {
+        if (e.getPieces().isEmpty()) {
+            return getPieceFactor(e);
+        }
+        double weight = 0;
+        double cost = 0;
+        for (Edge piece : e.getPieces()) {
+            double factor = getPieceFactor(piece);
+            if (factor == Double.POSITIVE_INFINITY) {
+                return factor;
+            }
+            weight += piece.getWeight();
+            cost += piece.getWeight() * factor;
+        }
+        return weight == 0 ? 1 : cost / weight;
+    }
+
+    private double getPieceFactor(Edge e) {
+        Double nameFactor = names.get(e.getName());
+        Double edgeFactor = edges.get(key(e.getSource(), e.getDestination()));
+        return (nameFactor == null ? 1 : nameFactor) * (edgeFactor == null ? 1 : edgeFactor);
+    }
+
+    private static Pair<String, String> key(Vertex v1, Vertex v2) {
+        String n1 = v1.getName();
+        String n2 = v2.getName();
+        return n1.compareTo(n2) <= 0 ? new Pair<>(n1, n2) : new Pair<>(n2, n1);
+    }
+
+    private static void checkFactor(double factor) {
+        if (!(factor > 0)) {
+            throw new IllegalArgumentException("The factor of an edge must be positive: " + factor);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.usimaps.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import kotlin.Pair;
+
+/**
+ * FloorOverlay class
+ * Two level view of a routing snapshot in one routing profile. Every floor is a subgraph, and its
+ * connectors are the vertices of the stair and elevator edges changing floor. The overlay links the
+ * connectors: a shortcut between two connectors of a floor costs the cheapest path between them on
+ * that floor, and the edges changing floor are kept. A query searches the floor of the source, the
+ * floor of the destination and the overlay, the other floors are only crossed through shortcuts.
+ * Outside vertices belong to no floor: routes from or to them are not answered by the overlay.
+ */
+final class FloorOverlay {
+    // marks the previous edge of a vertex reached through a shortcut
+    private static final int SHORTCUT = -2;
+
+    private final RoutingGraph graph;
+    private final RoutingProfile profile;
+    // index of every vertex among the connectors, -1 if it is not a connector
+    private final int[] connectorIndex;
+    // shortcuts of every connector in CSR layout, indexed by connector index
+    private final int[] shortcutOffsets;
+    private final int[] shortcutTargets;
+    private final double[] shortcutCosts;
+
+    /**
+     * Builds the overlay: one search on its floor from every connector
+     * @param graph: the routing snapshot
+     * @param profile: the routing profile deciding the cost of the edges
+     */
+    FloorOverlay(RoutingGraph graph, RoutingProfile profile) {
+        this.graph = graph;
+        this.profile = profile;
+        int n = graph.getVertexCount();
+        connectorIndex = new int[n];
+        Arrays.fill(connectorIndex, -1);
+        List<Integer> connectors = new ArrayList<>();
+        Map<Integer, List<Integer>> connectorsByFloor = new HashMap<>();
+        for (int v = 0; v < n; v++) {
+            if (isConnector(v)) {
+                connectorIndex[v] = connectors.size();
+                connectors.add(v);
+                List<Integer> onFloor = connectorsByFloor.get(graph.getFloor(v));
+                if (onFloor == null) {
+                    onFloor = new ArrayList<>();
+                    connectorsByFloor.put(graph.getFloor(v), onFloor);
+                }
+                onFloor.add(v);
+            }
+        }
+
+        SearchWorkspace workspace = graph.getWorkspace();
+        shortcutOffsets = new int[connectors.size() + 1];
+        List<Integer> targets = new ArrayList<>();
+        List<Double> costs = new ArrayList<>();
+        for (int i = 0; i < connectors.size(); i++) {
+            int c = connectors.get(i);
+            shortcutOffsets[i] = targets.size();
+            floorSearch(c, -1, workspace);
+            for (int d : connectorsByFloor.get(graph.getFloor(c))) {
+                double distance = workspace.getDistance(d);
+                if (d != c && distance != Double.POSITIVE_INFINITY) {
+                    targets.add(d);
+                    costs.add(distance);
+                }
+            }
+        }
+        shortcutOffsets[connectors.size()] = targets.size();
+        shortcutTargets = new int[targets.size()];
+        shortcutCosts = new double[targets.size()];
+        for (int i = 0; i < targets.size(); i++) {
+            shortcutTargets[i] = targets.get(i);
+            shortcutCosts[i] = costs.get(i);
+        }
+    }
+
+    /**
+     * Returns whether a vertex is an end of an edge changing floor
+     */
+    private boolean isConnector(int v) {
+        if (graph.getType(v) == VertexType.OUTSIDE) {
+            return false;
+        }
+        for (int e = graph.getFirstEdge(v); e < graph.getEndEdge(v); e++) {
+            int w = graph.getTarget(e);
+            if (graph.getFloor(w) != graph.getFloor(v) && graph.getType(w) != VertexType.OUTSIDE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the cheapest path between two vertices through the overlay
+     * @param source: the id of the source vertex
+     * @param destination: the id of the destination vertex
+     * @return the cheapest path and its cost, an empty path and -1 if there is no path,
+     * or null if one of the vertices is outside
+     */
+    Pair<List<Vertex>, Double> getShortestPath(final int source, final int destination) {
+        if (graph.getType(source) == VertexType.OUTSIDE || graph.getType(destination) == VertexType.OUTSIDE) {
+            return null;
+        }
+        SearchWorkspace workspace = graph.getWorkspace();
+        workspace.reset();
+        int sourceFloor = graph.getFloor(source);
+        int destinationFloor = graph.getFloor(destination);
+        workspace.setDistance(source, 0, -1, -1);
+        workspace.estimate[source] = graph.estimate(source, destination, profile);
+        workspace.heap.update(source, workspace.estimate[source]);
+
+        while (!workspace.heap.isEmpty()) {
+            int current = workspace.heap.poll();
+            if (current == destination) {
+                break;
+            }
+            double currentDist = workspace.distance[current];
+            int floor = graph.getFloor(current);
+            boolean local = floor == sourceFloor || floor == destinationFloor;
+            for (int e = graph.getFirstEdge(current); e < graph.getEndEdge(current); e++) {
+                int w = graph.getTarget(e);
+                // every edge of the floors of the query, only the edges changing floor elsewhere
+                if (graph.getType(w) == VertexType.OUTSIDE || (!local && graph.getFloor(w) == floor)) {
+                    continue;
+                }
+                relax(workspace, current, w, currentDist + graph.getCost(e, profile), e, destination);
+            }
+            if (!local) {
+                int c = connectorIndex[current];
+                for (int s = shortcutOffsets[c]; s < shortcutOffsets[c + 1]; s++) {
+                    relax(workspace, current, shortcutTargets[s], currentDist + shortcutCosts[s], SHORTCUT, destination);
+                }
+            }
+        }
+
+        double distance = workspace.getDistance(destination);
+        if (distance == Double.POSITIVE_INFINITY) {
+            return new Pair<>(new ArrayList<>(), -1.0);
+        }
+        // read the vertices before unpacking the shortcuts, which searches again
+        List<Integer> vertices = new ArrayList<>();
+        List<Boolean> shortcuts = new ArrayList<>();
+        for (int v = destination; v != -1; v = workspace.previous[v]) {
+            vertices.add(v);
+            shortcuts.add(workspace.previousEdge[v] == SHORTCUT);
+        }
+        Collections.reverse(vertices);
+        Collections.reverse(shortcuts);
+
+        List<Vertex> path = new ArrayList<>();
+        path.add(graph.getVertex(source));
+        for (int i = 1; i < vertices.size(); i++) {
+            int v = vertices.get(i);
+            if (shortcuts.get(i)) {
+                // the path of the shortcut on its floor, without its first vertex
+                floorSearch(vertices.get(i - 1), v, workspace);
+                List<Vertex> segment = new ArrayList<>();
+                for (int w = v; w != vertices.get(i - 1); w = workspace.previous[w]) {
+                    segment.add(graph.getVertex(w));
+                }
+                Collections.reverse(segment);
+                path.addAll(segment);
+            } else {
+                path.add(graph.getVertex(v));
+            }
+        }
+        return new Pair<>(path, distance);
+    }
+
+    private void relax(SearchWorkspace workspace, int from, int to, double newDist, int edge, int destination) {
+        if (newDist == Double.POSITIVE_INFINITY || newDist >= workspace.getDistance(to)) {
+            return;
+        }
+        boolean reached = workspace.isReached(to);
+        workspace.setDistance(to, newDist, from, edge);
+        if (!reached) {
+            workspace.estimate[to] = graph.estimate(to, destination, profile);
+        }
+        workspace.heap.update(to, newDist + workspace.estimate[to]);
+    }
+
+    /**
+     * Searches the cheapest paths from a vertex without leaving its floor, with A* if there is a destination
+     * @param source: the id of the source vertex
+     * @param destination: the id of the destination vertex, -1 to reach every vertex of the floor
+     * @param workspace: the workspace of the search
+     */
+    private void floorSearch(int source, int destination, SearchWorkspace workspace) {
+        workspace.reset();
+        int floor = graph.getFloor(source);
+        workspace.setDistance(source, 0, -1, -1);
+        workspace.heap.update(source, 0);
+        while (!workspace.heap.isEmpty()) {
+            int current = workspace.heap.poll();
+            if (current == destination) {
+                return;
+            }
+            double currentDist = workspace.distance[current];
+            for (int e = graph.getFirstEdge(current); e < graph.getEndEdge(current); e++) {
+                int w = graph.getTarget(e);
+                if (graph.getFloor(w) != floor || graph.getType(w) == VertexType.OUTSIDE) {
+                    continue;
+                }
+                double newDist = currentDist + graph.getCost(e, profile);
+                if (newDist == Double.POSITIVE_INFINITY || newDist >= workspace.getDistance(w)) {
+                    continue;
+                }
+                boolean reached = workspace.isReached(w);
+                workspace.setDistance(w, newDist, current, e);
+                if (!reached) {
+                    workspace.estimate[w] = destination == -1 ? 0 : graph.estimate(w, destination, profile);
+                }
+                workspace.heap.update(w, newDist + workspace.estimate[w]);
+            }
+        }
+    }
+}
@@ -14,16 +14,18 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Objects;
-import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.function.Predicate;
 
 import kotlin.Pair;
 
@@ -32,15 +34,54 @@ import kotlin.Pair;
  * Represents a graph with vertices and edges
  */
 public class Graph implements Serializable {
+    // keep maps stored by earlier versions of the app loadable
+    private static final long serialVersionUID = -2872263663807704684L;
+
     // map of vertices to edges
     private Map<Vertex, Set<Edge>> map;
     private String mapName;
+    // dense vertex ids: the vertex with id i is vertexList.get(i), saved so that ids survive a reload
+    private List<Vertex> vertexList;
+    // index of vertex names to ids
+    private transient Map<String, Integer> vertexIds;
+    // routing snapshot of the map, rebuilt lazily after every change
+    private transient volatile RoutingGraph routingGraph;
+    // closed and re-weighted edges, applied to the routing snapshot but not saved
+    private transient EdgeClosures closures;
+    // paths to the last destination, for rerouting; also set on frozen snapshots, where threads
+    // asking for different destinations may replace each other's tree and compute it again
+    private transient volatile ShortestPathTree shortestPathTree;
+    // the graph with its chains compacted, computed again when the version changes
+    private transient Graph compactGraph;
+    // positions of the vertices and edges of every floor, updated by every change
+    private transient SpatialIndex spatialIndex;
+    // edges by name, one direction of every edge, updated by every change
+    private transient Map<String, List<Edge>> edgesByName;
+    // catalogues of the edges, floor names and searchable names, computed again when the version changes
+    private transient Set<Edge> edgeCatalogue;
+    private transient List<String> floorNames;
+    private transient List<String> searchableNames;
+    private transient long catalogueVersion;
+    // connected components by vertex id, updated by every change
+    private transient UnionFind components;
+    // connected components without the edges of outside vertices, that routes cannot pass through
+    private transient UnionFind indoorComponents;
+    // plane of the map, with its origin at the first vertex that is not outside
+    private transient LocalProjection projection;
+    // position of every vertex on the plane in meters, by vertex id
+    private transient double[] xs;
+    private transient double[] ys;
+    // snapshots of a GraphStore cannot be modified
+    private transient boolean frozen;
+    // incremented by every change, identifies the state of the map in cached routes
+    private long version = 0;
 
     /**
      * Constructor for Graph
      */
     public Graph() {
         this.map = new HashMap<>();
+        rebuildIndex();
     }
 
     /**
@@ -50,6 +91,212 @@ public class Graph implements Serializable {
     public Graph(String mapName) {
         this.map = new HashMap<>();
         this.mapName = mapName;
+        rebuildIndex();
+    }
+
+    /**
+     * Rebuilds the name index from the vertex ids, assigning ids if the graph has none
+     */
+    private void rebuildIndex() {
+        if (vertexList == null) {
+            vertexList = new ArrayList<>(map.keySet());
+        }
+        vertexIds = new HashMap<>();
+        for (int i = 0; i < vertexList.size(); i++) {
+            vertexIds.put(vertexList.get(i).getName(), i);
+        }
+        routingGraph = null;
+        closures = new EdgeClosures();
+        catalogueVersion = -1;
+        projection = null;
+        xs = new double[Math.max(16, vertexList.size())];
+        ys = new double[xs.length];
+        for (int i = 0; i < vertexList.size(); i++) {
+            project(i);
+        }
+        rebuildComponents();
+        rebuildEdgeIndexes();
+    }
+
+    /**
+     * Rebuilds the spatial index and the name index from the vertices and edges of the graph
+     */
+    private void rebuildEdgeIndexes() {
+        spatialIndex = new SpatialIndex();
+        edgesByName = new HashMap<>();
+        for (Vertex v : vertexList) {
+            spatialIndex.addVertex(v);
+        }
+        for (Set<Edge> edges : map.values()) {
+            for (Edge e : edges) {
+                // every edge is stored in both directions, index it once
+                if (getVertexId(e.getSource()) < getVertexId(e.getDestination())) {
+                    indexEdge(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the position on the plane of a new vertex. The origin of the plane is the first vertex
+     * that is not outside, the vertices added before it are placed when it is added.
+     * @param id: the id of the vertex
+     */
+    private void project(int id) {
+        if (id == xs.length) {
+            xs = Arrays.copyOf(xs, id * 2);
+            ys = Arrays.copyOf(ys, id * 2);
+        }
+        Vertex v = vertexList.get(id);
+        if (projection == null) {
+            if (v.getType() == VertexType.OUTSIDE) {
+                return;
+            }
+            projection = new LocalProjection(v.getLatitude(), v.getLongitude());
+            for (int i = 0; i < id; i++) {
+                project(i);
+            }
+        }
+        xs[id] = projection.getX(v.getLongitude());
+        ys[id] = projection.getY(v.getLatitude());
+    }
+
+    /**
+     * Adds an edge to the spatial index and to the name index
+     */
+    private void indexEdge(Edge e) {
+        spatialIndex.addEdge(e);
+        List<Edge> named = edgesByName.get(e.getName());
+        if (named == null) {
+            named = new ArrayList<>();
+            edgesByName.put(e.getName(), named);
+        }
+        named.add(e);
+    }
+
+    /**
+     * Computes the catalogues again if the graph changed since they were computed
+     */
+    private void refreshCatalogue() {
+        if (catalogueVersion == version) {
+            return;
+        }
+        Set<Edge> edges = new HashSet<>();
+        Set<String> floors = new HashSet<>();
+        List<String> names = new ArrayList<>();
+        for (Vertex v : vertexList) {
+            edges.addAll(map.get(v));
+            floors.add(ordinal(v.getFloor()));
+            if (v.getType() != VertexType.CONNECTION && v.getType() != VertexType.STAIR && v.getType() != VertexType.ELEVATOR) {
+                names.add(v.getName());
+            }
+        }
+        edgeCatalogue = Collections.unmodifiableSet(edges);
+        floorNames = Collections.unmodifiableList(new ArrayList<>(floors));
+        searchableNames = Collections.unmodifiableList(names);
+        catalogueVersion = version;
+    }
+
+    /**
+     * Rebuilds the connected components from the edges of the graph
+     */
+    private void rebuildComponents() {
+        components = new UnionFind();
+        indoorComponents = new UnionFind();
+        for (int i = 0; i < vertexList.size(); i++) {
+            components.add();
+            indoorComponents.add();
+        }
+        for (Set<Edge> edges : map.values()) {
+            for (Edge e : edges) {
+                connect(e.getSource(), e.getDestination());
+            }
+        }
+    }
+
+    /**
+     * Merges the components of the two vertices of an edge
+     */
+    private void connect(Vertex source, Vertex destination) {
+        int s = getVertexId(source);
+        int t = getVertexId(destination);
+        components.union(s, t);
+        if (source.getType() != VertexType.OUTSIDE && destination.getType() != VertexType.OUTSIDE) {
+            indoorComponents.union(s, t);
+        }
+    }
+
+    /**
+     * Restores the transient indexes after deserialization
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (vertexList == null) {
+            restoreLegacyMap();
+        }
+        rebuildIndex();
+    }
+
+    /**
+     * Restores a map saved before vertices were identified by their name. Such maps may hold several
+     * vertices with the same name: reading the map merged them, keeping the edges of only one of them.
+     * Every vertex is kept and renamed with a number, e.g. "Corridor D0 2", and the edges are restored
+     * from the edges in the other direction, that the neighbours still hold.
+     */
+    private void restoreLegacyMap() {
+        // the vertices by identity, in the order they are found
+        Map<Vertex, Boolean> found = new IdentityHashMap<>();
+        List<Vertex> vertices = new ArrayList<>();
+        List<Edge> edges = new ArrayList<>();
+        for (Map.Entry<Vertex, Set<Edge>> entry : map.entrySet()) {
+            addLegacyVertex(entry.getKey(), found, vertices);
+            for (Edge e : entry.getValue()) {
+                addLegacyVertex(e.getSource(), found, vertices);
+                addLegacyVertex(e.getDestination(), found, vertices);
+                edges.add(e);
+            }
+        }
+        Set<String> names = new HashSet<>();
+        for (Vertex v : vertices) {
+            String name = v.getName();
+            for (int i = 2; !names.add(name); i++) {
+                name = v.getName() + " " + i;
+            }
+            v.setName(name);
+        }
+
+        map = new HashMap<>();
+        for (Vertex v : vertices) {
+            map.put(v, new HashSet<>());
+        }
+        for (Edge e : edges) {
+            map.get(e.getSource()).add(e);
+        }
+        for (Edge e : edges) {
+            if (!hasEdge(e.getDestination(), e.getSource(), e)) {
+                map.get(e.getDestination()).add(new Edge(e.getDestination(), e.getSource(), e.getWeight(), e.getName()));
+            }
+        }
+        vertexList = vertices;
+    }
+
+    private static void addLegacyVertex(Vertex v, Map<Vertex, Boolean> found, List<Vertex> vertices) {
+        if (found.put(v, Boolean.TRUE) == null) {
+            vertices.add(v);
+        }
+    }
+
+    /**
+     * Returns whether a vertex has an edge to another vertex with the same weight and name as a given edge
+     */
+    private boolean hasEdge(Vertex source, Vertex destination, Edge like) {
+        for (Edge e : map.get(source)) {
+            if (e.getDestination() == destination && e.getWeight() == like.getWeight()
+                    && Objects.equals(e.getName(), like.getName())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -61,15 +308,11 @@ public class Graph implements Serializable {
 
     /**
      * Returns all the names of vertices in the graph that are not connections
+     * The list is cached until the graph changes and cannot be modified
      */
     public List<String> getSearchableNames() {
-        List<String> roomNames = new ArrayList<>();
-        for (Vertex v : map.keySet()) {
-            if (v.getType() != VertexType.CONNECTION && v.getType() != VertexType.STAIR && v.getType() != VertexType.ELEVATOR) {
-                roomNames.add(v.getName());
-            }
-        }
-        return roomNames;
+        refreshCatalogue();
+        return searchableNames;
     }
 
     /**
@@ -78,12 +321,27 @@ public class Graph implements Serializable {
      * @return the vertex with the given name, or null if the vertex does not exist
      */
     public Vertex getVertexByName(String name) {
-        for (Vertex v : map.keySet()) {
-            if (v.getName().equals(name)) {
-                return v;
-            }
-        }
-        return null;
+        Integer id = vertexIds.get(name);
+        return id == null ? null : vertexList.get(id);
+    }
+
+    /**
+     * Returns the id of a vertex: ids are dense, from 0 to the number of vertices - 1
+     * @param v: the vertex
+     * @return the id of the vertex, or -1 if the vertex is not in the graph
+     */
+    public int getVertexId(Vertex v) {
+        Integer id = v == null ? null : vertexIds.get(v.getName());
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the vertex with the given id
+     * @param id: the id of the vertex
+     * @return the vertex
+     */
+    public Vertex getVertex(int id) {
+        return vertexList.get(id);
     }
 
 
@@ -92,7 +350,24 @@ public class Graph implements Serializable {
      * @param v: the vertex to add
      */
     public void addVertex(final Vertex v) {
+        checkNotFrozen();
+        boolean isNew = !vertexIds.containsKey(v.getName());
+        if (isNew) {
+            vertexIds.put(v.getName(), vertexList.size());
+            vertexList.add(v);
+            project(vertexList.size() - 1);
+        }
         map.put(v, new HashSet<>());
+        if (isNew) {
+            components.add();
+            indoorComponents.add();
+            spatialIndex.addVertex(v);
+        } else {
+            // the edges of the vertex were removed, components cannot be split incrementally
+            rebuildComponents();
+            rebuildEdgeIndexes();
+        }
+        changed();
     }
 
     /**
@@ -102,10 +377,129 @@ public class Graph implements Serializable {
      * @param weight: the weight of the edge
      */
     public void addEdge(final Vertex source, final Vertex destination, final double weight, String name) {
-        Edge e = new Edge(source, destination, weight, name);
+        addEdge(source, destination, weight, name, Collections.<Edge>emptyList());
+    }
+
+    /**
+     * Add an undirected compacted edge to the graph, replacing a chain of edges
+     * @param source: the source vertex
+     * @param destination: the destination vertex
+     * @param weight: the weight of the edge
+     * @param pieces: the edges of the chain from the source to the destination, empty if the edge is not compacted
+     */
+    public void addEdge(final Vertex source, final Vertex destination, final double weight, String name, List<Edge> pieces) {
+        checkNotFrozen();
+        Edge e = new Edge(source, destination, weight, name, pieces);
         Objects.requireNonNull(map.get(source)).add(e);
-        Edge e2 = new Edge(destination, source, weight, name);
+        List<Edge> reversed = new ArrayList<>();
+        for (int i = pieces.size() - 1; i >= 0; i--) {
+            Edge piece = pieces.get(i);
+            reversed.add(new Edge(piece.getDestination(), piece.getSource(), piece.getWeight(), piece.getName()));
+        }
+        Edge e2 = new Edge(destination, source, weight, name, reversed);
         Objects.requireNonNull(map.get(destination)).add(e2);
+        connect(source, destination);
+        indexEdge(e);
+        changed();
+    }
+
+    /**
+     * Invalidates the routing snapshot and bumps the version after a change to the graph
+     */
+    private void changed() {
+        version++;
+        routingGraph = null;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("The snapshot of " + mapName + " cannot be modified, edit a copy");
+        }
+    }
+
+    /**
+     * Makes the graph read only, building the routing snapshot and the catalogues
+     * so that threads sharing the graph never change them concurrently.
+     * Only the cached shortest-path tree is still replaced, see getShortestPathTree
+     */
+    void freeze() {
+        getRoutingGraph();
+        Graph compact = getCompactGraph();
+        if (compact != this) {
+            compact.freeze();
+        }
+        refreshCatalogue();
+        components.compress();
+        indoorComponents.compress();
+        frozen = true;
+    }
+
+    /**
+     * Returns whether the graph is a read only snapshot
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Returns a modifiable deep copy of the graph, with the same version
+     */
+    public Graph copy() {
+        Graph copy = deserialize(serialize(this));
+        if (copy != null) {
+            copy.closures = new EdgeClosures(closures);
+        }
+        return copy;
+    }
+
+    /**
+     * Closes or re-weights edges without changing the graph, e.g. a corridor closed for works.
+     * Snapshots of a GraphStore accept closures too: the routes of every thread use them from the next query.
+     * The tree of the last destination and the routes of a RouteCache are repaired, not computed again.
+     * @param closures: the closures, copied, replacing the previous ones
+     */
+    public synchronized void setClosures(EdgeClosures closures) {
+        this.closures = new EdgeClosures(closures);
+        RoutingGraph routing = routingGraph;
+        if (routing != null) {
+            routingGraph = applyClosures(routing.getBase());
+        }
+        Graph compact = compactGraph;
+        if (compact != null && compact != this) {
+            compact.setClosures(closures);
+        }
+    }
+
+    /**
+     * Returns a copy of the closures of the graph
+     */
+    public synchronized EdgeClosures getClosures() {
+        return new EdgeClosures(closures);
+    }
+
+    /**
+     * Derives the snapshot with the closures of the graph from a snapshot without closures
+     */
+    private RoutingGraph applyClosures(RoutingGraph base) {
+        if (closures.isEmpty()) {
+            return base;
+        }
+        double[] factors = new double[base.getEdgeCount()];
+        // the snapshot numbers the edges of every vertex in the order of the map
+        for (int id = 0; id < vertexList.size(); id++) {
+            int e = base.getFirstEdge(id);
+            for (Edge edge : map.get(vertexList.get(id))) {
+                factors[e++] = closures.getFactor(edge);
+            }
+        }
+        return new RoutingGraph(base, factors);
+    }
+
+    /**
+     * Returns the version of the graph: it increases with every change
+     */
+    public long getVersion() {
+        return version;
     }
 
     /**
@@ -118,33 +512,202 @@ public class Graph implements Serializable {
     }
 
     public List<String> getFloorNames() {
-        Set<String> floorNames = new HashSet<>();
-        for (Vertex v : map.keySet()) {
-            floorNames.add(ordinal(v.getFloor()));
+        refreshCatalogue();
+        return floorNames;
+    }
+
+    /**
+     * Returns a copy of the graph where every chain of connection vertices, e.g. the vertices splitting a
+     * corridor left by connectVertexToEdge, is a single edge keeping the vertices of the chain as a polyline.
+     * A vertex of a chain is a connection vertex with two neighbors, the compacted edge takes the name of
+     * the first edge of the chain. Routes between the remaining vertices cost the same with fewer vertices
+     * to search, expandPath gives back the vertices of the chains. The closures apply to the edges of the chains.
+     * @return a new graph, with the version of this graph
+     */
+    public Graph compact() {
+        Graph compact = new Graph(mapName);
+        Set<Vertex> chained = new HashSet<>();
+        List<Edge> chains = new ArrayList<>();
+        for (Vertex u : vertexList) {
+            if (isChainVertex(u)) {
+                continue;
+            }
+            for (Edge e : map.get(u)) {
+                // walk the chain to the next vertex that is not part of one
+                List<Edge> pieces = new ArrayList<>();
+                List<Vertex> via = new ArrayList<>();
+                double weight = e.getWeight();
+                addPieces(pieces, e);
+                Vertex previous = u;
+                Vertex current = e.getDestination();
+                while (isChainVertex(current) && !current.equals(u)) {
+                    via.add(current);
+                    for (Edge next : map.get(current)) {
+                        if (!next.getDestination().equals(previous)) {
+                            weight += next.getWeight();
+                            addPieces(pieces, next);
+                            previous = current;
+                            current = next.getDestination();
+                            break;
+                        }
+                    }
+                }
+                // every chain once, chains going back to their start are kept as they are
+                if (!via.isEmpty() && getVertexId(u) < getVertexId(current)) {
+                    chained.addAll(via);
+                    chains.add(new Edge(u, current, weight, e.getName(), pieces));
+                }
+            }
+        }
+
+        for (Vertex v : vertexList) {
+            if (!chained.contains(v)) {
+                compact.addVertex(v);
+            }
+        }
+        for (Vertex v : compact.vertexList) {
+            for (Edge e : map.get(v)) {
+                Vertex w = e.getDestination();
+                if (!chained.contains(w) && getVertexId(v) < getVertexId(w)) {
+                    compact.addEdge(v, w, e.getWeight(), e.getName(), e.getPieces());
+                }
+            }
+        }
+        for (Edge e : chains) {
+            compact.addEdge(e.getSource(), e.getDestination(), e.getWeight(), e.getName(), e.getPieces());
         }
-        return new ArrayList<>(floorNames);
+        compact.version = version;
+        compact.closures = new EdgeClosures(closures);
+        // a compacted graph has no chains left
+        compact.compactGraph = compact;
+        return compact;
     }
 
+    /**
+     * Adds an edge to the pieces of a chain, or its own pieces if it is compacted
+     */
+    private static void addPieces(List<Edge> pieces, Edge e) {
+        if (e.getPieces().isEmpty()) {
+            pieces.add(e);
+        } else {
+            pieces.addAll(e.getPieces());
+        }
+    }
 
+    /**
+     * Returns whether a vertex is part of a chain that compact replaces with an edge
+     */
+    private boolean isChainVertex(Vertex v) {
+        Set<Edge> edges = map.get(v);
+        if (v.getType() != VertexType.CONNECTION || edges.size() != 2) {
+            return false;
+        }
+        Iterator<Edge> iterator = edges.iterator();
+        Vertex w1 = iterator.next().getDestination();
+        Vertex w2 = iterator.next().getDestination();
+        return !w1.equals(w2) && !w1.equals(v) && !w2.equals(v);
+    }
 
     /**
-     * Get the edges of the graph
-     * @return the set of edges
+     * Returns the compacted graph, see compact: it is kept until the graph changes, and has the closures of the graph
      */
-    public Set<Edge> getEdges() {
-        Set<Edge> edges = new HashSet<>();
-        for (Vertex v : map.keySet()) {
-            edges.addAll(map.get(v));
+    public Graph getCompactGraph() {
+        Graph compact = compactGraph;
+        if (compact == null || compact.version != version) {
+            compact = compact();
+            compactGraph = compact;
         }
-        return edges;
+        return compact;
     }
 
-    public Set<String> getEdgeNames() {
-        Set<String> edgeNames = new HashSet<>();
-        for (Edge e : getEdges()) {
-            edgeNames.add(e.getName());
+    /**
+     * Inserts the vertices of the polylines of compacted edges in a path, for a path of the shortest profile
+     * @param path: a path of the graph
+     * @return the path with the vertices of every compacted edge it takes, a new list
+     */
+    public List<Vertex> expandPath(List<Vertex> path) {
+        return expandPath(path, RoutingProfile.SHORTEST);
+    }
+
+    /**
+     * Inserts the vertices of the polylines of compacted edges in a path. Between two vertices joined by
+     * several edges the path takes the cheapest one in the profile, with the closures of the graph.
+     * @param path: a path of the graph
+     * @param profile: the routing profile the path was searched with
+     * @return the path with the vertices of every compacted edge it takes, a new list
+     */
+    public List<Vertex> expandPath(List<Vertex> path, RoutingProfile profile) {
+        RoutingGraph routing = getRoutingGraph();
+        List<Vertex> expanded = new ArrayList<>();
+        for (int i = 0; i < path.size(); i++) {
+            int id = i > 0 ? routing.getId(path.get(i - 1)) : -1;
+            if (id >= 0) {
+                // the snapshot numbers the edges of every vertex in the order of the map
+                Edge cheapest = null;
+                float cheapestCost = 0;
+                int e = routing.getFirstEdge(id);
+                for (Edge edge : map.get(path.get(i - 1))) {
+                    float cost = routing.getCost(e++, profile);
+                    if (edge.getDestination().equals(path.get(i)) && (cheapest == null || cost < cheapestCost)) {
+                        cheapest = edge;
+                        cheapestCost = cost;
+                    }
+                }
+                if (cheapest != null) {
+                    expanded.addAll(cheapest.getVia());
+                }
+            }
+            expanded.add(path.get(i));
+        }
+        return expanded;
+    }
+
+    /**
+     * Get the graph of a single floor: its indoor vertices and the edges between them
+     * @param floor: the floor
+     * @return a new graph, routing only on the floor
+     */
+    public Graph getFloorGraph(int floor) {
+        Graph graph = new Graph(mapName + " " + ordinal(floor) + " floor");
+        for (Vertex v : vertexList) {
+            if (v.getFloor() == floor && v.getType() != VertexType.OUTSIDE) {
+                graph.addVertex(v);
+            }
+        }
+        for (Vertex v : graph.vertexList) {
+            for (Edge e : map.get(v)) {
+                // every undirected edge once
+                Vertex w = e.getDestination();
+                if (graph.map.containsKey(w) && vertexIds.get(v.getName()) < vertexIds.get(w.getName())) {
+                    graph.addEdge(v, w, e.getWeight(), e.getName(), e.getPieces());
+                }
+            }
         }
-        return edgeNames;
+        return graph;
+    }
+
+
+    /**
+     * Get the edges of the graph, in both directions
+     * @return the set of edges, cached until the graph changes and not modifiable
+     */
+    public Set<Edge> getEdges() {
+        refreshCatalogue();
+        return edgeCatalogue;
+    }
+
+    public Set<String> getEdgeNames() {
+        return Collections.unmodifiableSet(edgesByName.keySet());
+    }
+
+    /**
+     * Get the edges with the given name, in one direction
+     * @param name: the name of the edges
+     * @return the list of edges, empty if there is no edge with the name
+     */
+    public List<Edge> getEdgesByName(String name) {
+        List<Edge> edges = edgesByName.get(name);
+        return edges == null ? Collections.<Edge>emptyList() : Collections.unmodifiableList(edges);
     }
 
     /**
@@ -152,7 +715,7 @@ public class Graph implements Serializable {
      * @return the list of vertices
      */
     public List<Vertex> getVertices() {
-        return new ArrayList<>(map.keySet());
+        return new ArrayList<>(vertexList);
     }
 
     /**
@@ -180,63 +743,279 @@ public class Graph implements Serializable {
      * @return the shortest path and the weight of the path
      */
     public Pair<List<Vertex>, Double> getShortestPath(final Vertex source, final Vertex destination) {
-        // create vertex priority queue
-        Map<Vertex, Double> distance = new HashMap<>();
-        Map<Vertex, Vertex> previous = new HashMap<>();
-        PriorityQueue<Vertex> pq = new PriorityQueue<>(Comparator.comparingDouble(distance::get));
+        return getShortestPath(source, destination, RoutingAlgorithm.DIJKSTRA);
+    }
 
-        distance.put(source, 0.0);
-        pq.add(source);
+    /**
+     * Get the shortest path between two vertices with the given algorithm
+     * Returns the shortest path and the weight of the path
+     *
+     * @param source: the source vertex
+     * @param destination: the destination vertex
+     * @param algorithm: the algorithm used to search the path
+     * @return the shortest path and the weight of the path
+     */
+    public Pair<List<Vertex>, Double> getShortestPath(final Vertex source, final Vertex destination, RoutingAlgorithm algorithm) {
+        return getShortestPath(source, destination, algorithm, RoutingProfile.SHORTEST);
+    }
 
-        for (Vertex v : map.keySet()) {
-            if (!v.equals(source)) {
-                previous.put(v, null);
-                distance.put(v, Double.MAX_VALUE);
-            }
+    /**
+     * Get the cheapest path between two vertices in the given routing profile
+     * Returns the path and its cost: the weight of the path for the shortest profile,
+     * the walking time in seconds for the fastest one
+     *
+     * @param source: the source vertex
+     * @param destination: the destination vertex
+     * @param algorithm: the algorithm used to search the path
+     * @param profile: the routing profile deciding the cost of the edges
+     * @return the cheapest path and its cost, or an empty path and -1 if there is no path
+     */
+    public Pair<List<Vertex>, Double> getShortestPath(final Vertex source, final Vertex destination,
+                                                      RoutingAlgorithm algorithm, RoutingProfile profile) {
+        if (!isReachable(source, destination)) {
+            return new Pair<>(new ArrayList<>(), -1.0);
         }
+        RoutingGraph routing = getRoutingGraph();
+        return routing.getShortestPath(routing.getId(source), routing.getId(destination), algorithm, profile);
+    }
 
-        while (!pq.isEmpty()) {
-            Vertex current = pq.poll();
-            if (current.equals(destination)) {
-                break;
-            }
-            // check if current vertex has edges
-            if (map.get(current) == null || map.get(current).isEmpty()) {
-                continue;
-            }
+    /**
+     * Returns the tree of the cheapest paths from every vertex to a destination.
+     * The tree is kept, it is only computed again if the destination, the profile or the graph changes,
+     * and repaired if only the closures change. Threads sharing a frozen graph may race on the kept tree:
+     * the trees are immutable, so the race only costs a computation, never a wrong tree.
+     * @param destination: the destination vertex
+     * @param profile: the routing profile deciding the cost of the edges
+     * @return the tree, or null if the destination is not in the graph
+     */
+    public ShortestPathTree getShortestPathTree(final Vertex destination, RoutingProfile profile) {
+        RoutingGraph routing = getRoutingGraph();
+        int root = routing.getId(destination);
+        if (root == -1) {
+            return null;
+        }
+        ShortestPathTree tree = shortestPathTree;
+        if (tree == null || tree.getRoot() != root || tree.getProfile() != profile
+                || tree.getRoutingGraph().getBase() != routing.getBase()) {
+            tree = new ShortestPathTree(routing, root, profile);
+            shortestPathTree = tree;
+        } else if (tree.getRoutingGraph() != routing) {
+            // only the closures changed
+            tree = new ShortestPathTree(routing, tree);
+            shortestPathTree = tree;
+        }
+        return tree;
+    }
 
-            for (Edge e : map.get(current)) {
-                // ignore outside vertices
-                if (e.getDestination().getType() == VertexType.OUTSIDE && destination.getType() != VertexType.OUTSIDE) {
-                    continue;
-                }
-                double newDist = distance.get(current) + e.getWeight();
-                if (newDist < distance.get(e.getDestination())) {
-                    distance.put(e.getDestination(), newDist);
-                    previous.put(e.getDestination(), current);
-                    pq.add(e.getDestination());
-                }
-            }
+    /**
+     * Get the cheapest path between two vertices when every turn costs a penalty, e.g. 10 meters in the
+     * shortest profile: such routes zig-zag less and need fewer instructions
+     * @param source: the source vertex
+     * @param destination: the destination vertex
+     * @param profile: the routing profile deciding the cost of the edges
+     * @param turnPenalty: the cost of a turn, in the unit of the profile
+     * @return the path and its cost without the penalties, or an empty path and -1 if there is no path
+     */
+    public Pair<List<Vertex>, Double> getTurnAwarePath(final Vertex source, final Vertex destination,
+                                                       RoutingProfile profile, double turnPenalty) {
+        if (!isReachable(source, destination)) {
+            return new Pair<>(new ArrayList<>(), -1.0);
         }
+        RoutingGraph routing = getRoutingGraph();
+        return routing.getTurnAwarePath(routing.getId(source), routing.getId(destination), profile, turnPenalty);
+    }
 
-        // check if destination is reachable
-        if (!distance.containsKey(destination) || distance.get(destination) == Double.MAX_VALUE) {
+    /**
+     * Get up to k loopless paths between two vertices, the cheapest first, e.g. to avoid a crowded stairwell
+     * @param source: the source vertex
+     * @param destination: the destination vertex
+     * @param profile: the routing profile deciding the cost of the edges
+     * @param k: the largest number of paths
+     * @param maxDetour: the largest ratio between the cost of a path and the cost of the cheapest one, e.g. 1.5
+     * @param timeBudgetMillis: the time after which no more paths are searched, the paths found so far are returned
+     * @return the paths and their costs, empty if there is no path
+     */
+    public List<Pair<List<Vertex>, Double>> getAlternativePaths(final Vertex source, final Vertex destination, RoutingProfile profile,
+                                                                int k, double maxDetour, long timeBudgetMillis) {
+        if (!isReachable(source, destination)) {
+            return new ArrayList<>();
+        }
+        RoutingGraph routing = getRoutingGraph();
+        return routing.getAlternativePaths(routing.getId(source), routing.getId(destination), profile,
+                k, maxDetour, timeBudgetMillis * 1000000);
+    }
+
+    /**
+     * Get the cheapest path from a start to a destination with the tree of the destination:
+     * after the first call, paths to the same destination take time proportional to their length
+     * @param start: the start vertex
+     * @param destination: the destination vertex
+     * @param profile: the routing profile deciding the cost of the edges
+     * @return the cheapest path and its cost, or an empty path and -1 if there is no path
+     */
+    public Pair<List<Vertex>, Double> getShortestPathTo(final Vertex start, final Vertex destination, RoutingProfile profile) {
+        ShortestPathTree tree = getShortestPathTree(destination, profile);
+        if (tree == null) {
             return new Pair<>(new ArrayList<>(), -1.0);
         }
+        return tree.getPath(tree.getRoutingGraph().getId(start));
+    }
+
+    /**
+     * Get the vertices within a walking radius of a vertex, e.g. the rooms within a 3 minute walk
+     * with a radius of 180 in the fastest profile. Closed edges are avoided.
+     * @param source: the source vertex
+     * @param radius: the largest cost of a path, in the unit of the profile
+     * @param profile: the routing profile deciding the cost of the edges
+     * @param types: the types of the vertices returned, null for every type
+     * @param floor: the floor of the vertices returned, null for every floor
+     * @return the vertices and the cost of their path, the cheapest first, empty if the source is not in the graph
+     */
+    public List<Pair<Vertex, Double>> getVerticesWithin(final Vertex source, double radius, RoutingProfile profile,
+                                                        Set<VertexType> types, Integer floor) {
+        RoutingGraph routing = getRoutingGraph();
+        return routing.getVerticesWithin(routing.getId(source), radius, profile, types, floor);
+    }
 
-        // construct path
-        List<Vertex> path = new ArrayList<>();
-        Vertex current = destination;
-        while (current != null) {
-            path.add(current);
-            current = previous.get(current);
+    /**
+     * Get the paths to the k nearest vertices matching a predicate, e.g. the nearest elevators or the nearest
+     * rooms of a floor, with a single search instead of one per candidate. The source itself is never
+     * returned. Closed edges are avoided.
+     * @param source: the source vertex
+     * @param target: the predicate of the vertices searched
+     * @param k: the largest number of vertices found
+     * @param profile: the routing profile deciding the cost of the edges
+     * @return the paths and their costs, the cheapest first, empty if the source is not in the graph
+     */
+    public List<Pair<List<Vertex>, Double>> getNearestTargets(final Vertex source, Predicate<Vertex> target,
+                                                              int k, RoutingProfile profile) {
+        RoutingGraph routing = getRoutingGraph();
+        return routing.getNearestTargets(routing.getId(source), profile, target, k);
+    }
+
+    /**
+     * Get the paths to the k nearest vertices of a type other than the source, e.g. the nearest elevator
+     * @param source: the source vertex
+     * @param type: the type of the vertices searched
+     * @param k: the largest number of vertices found
+     * @param profile: the routing profile deciding the cost of the edges
+     * @return the paths and their costs, the cheapest first, empty if the source is not in the graph
+     */
+    public List<Pair<List<Vertex>, Double>> getNearestTargets(final Vertex source, VertexType type,
+                                                              int k, RoutingProfile profile) {
+        return getNearestTargets(source, v -> v.getType() == type, k, profile);
+    }
+
+    /**
+     * Returns the length of the shortest path between two vertices
+     * Routes from searchable vertices are looked up in the distance table of the routing snapshot
+     *
+     * @param source: the source vertex
+     * @param destination: the destination vertex
+     * @return the length of the path, or -1 if there is no path
+     */
+    public double getDistance(final Vertex source, final Vertex destination) {
+        if (!isReachable(source, destination)) {
+            return -1;
+        }
+        RoutingGraph routing = getRoutingGraph();
+        return routing.getDistance(routing.getId(source), routing.getId(destination));
+    }
+
+    /**
+     * Returns whether there is a path between two vertices, in constant time.
+     * Outside vertices are only used if they are the destination, as in the shortest path.
+     * Closed edges are ignored: the route may still be missing if they are the only way.
+     * @param source: the source vertex
+     * @param destination: the destination vertex
+     * @return true if there is a path, false otherwise or if a vertex is not in the graph
+     */
+    public boolean isReachable(final Vertex source, final Vertex destination) {
+        int s = getVertexId(source);
+        int t = getVertexId(destination);
+        if (s == -1 || t == -1) {
+            return false;
         }
-        // reverse the path
-        List<Vertex> reversed = new LinkedList<>();
-        for (int i = path.size() - 1; i >= 0; i--) {
-            reversed.add(path.get(i));
+        if (s == t) {
+            return true;
+        }
+        if (vertexList.get(t).getType() == VertexType.OUTSIDE) {
+            return components.connected(s, t);
+        }
+        if (vertexList.get(s).getType() != VertexType.OUTSIDE) {
+            return indoorComponents.connected(s, t);
         }
-        return new Pair<>(reversed, distance.get(destination));
+        // the path leaves the outside source through one of its indoor neighbors
+        for (Edge e : map.get(vertexList.get(s))) {
+            Vertex w = e.getDestination();
+            if (w.getType() != VertexType.OUTSIDE && indoorComponents.connected(getVertexId(w), t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the edge closest to a position on a floor, e.g. the corridor to connect a new room to
+     * @param latitude: the latitude of the position
+     * @param longitude: the longitude of the position
+     * @param floor: the floor
+     * @return the closest edge, or null if the floor has no edges
+     */
+    public Edge getNearestEdge(double latitude, double longitude, int floor) {
+        return spatialIndex.getNearestEdge(latitude, longitude, floor);
+    }
+
+    /**
+     * Returns the vertices closest to a position on a floor, e.g. to snap a GPS position to the map
+     * @param latitude: the latitude of the position
+     * @param longitude: the longitude of the position
+     * @param floor: the floor
+     * @param k: the number of vertices
+     * @return at most k vertices, sorted by distance
+     */
+    public List<Vertex> getNearestVertices(double latitude, double longitude, int floor, int k) {
+        return spatialIndex.getNearestVertices(latitude, longitude, floor, k);
+    }
+
+    /**
+     * Returns the number of connected components of the graph
+     */
+    public int getComponentCount() {
+        return components.getComponentCount();
+    }
+
+    /**
+     * Returns the vertices that are not connected to the largest component of the graph
+     * @return the list of disconnected vertices, empty if the graph is connected
+     */
+    public List<Vertex> getDisconnectedVertices() {
+        int largest = -1;
+        for (int i = 0; i < vertexList.size(); i++) {
+            if (largest == -1 || components.getComponentSize(i) > components.getComponentSize(largest)) {
+                largest = i;
+            }
+        }
+        List<Vertex> disconnected = new ArrayList<>();
+        for (int i = 0; i < vertexList.size(); i++) {
+            if (!components.connected(i, largest)) {
+                disconnected.add(vertexList.get(i));
+            }
+        }
+        return disconnected;
+    }
+
+    /**
+     * Returns the routing snapshot of the graph, building it if the graph changed since the last call
+     * @return the routing snapshot
+     */
+    public RoutingGraph getRoutingGraph() {
+        RoutingGraph routing = routingGraph;
+        if (routing == null) {
+            routing = applyClosures(new RoutingGraph(vertexList, map, xs, ys));
+            routingGraph = routing;
+        }
+        return routing;
     }
 
     /**
@@ -269,18 +1048,10 @@ public class Graph implements Serializable {
         if (!map.containsKey(v))
             addVertex(v);
 
-        // get the closest point to the vertex on the edge
-        double x1 = e.getSource().getLatitude();
-        double y1 = e.getSource().getLongitude();
-        double x2 = e.getDestination().getLatitude();
-        double y2 = e.getDestination().getLongitude();
-        double x3 = v.getLatitude();
-        double y3 = v.getLongitude();
-
-        // calculate the closest point
-        double u = ((x3 - x1) * (x2 - x1) + (y3 - y1) * (y2 - y1)) / (Math.pow(x2 - x1, 2) + Math.pow(y2 - y1, 2));
-        double x = x1 + u * (x2 - x1);
-        double y = y1 + u * (y2 - y1);
+        // get the closest point to the vertex on the line of the edge
+        double u = getPositionOnEdge(v, e);
+        double x = e.getSource().getLatitude() + u * (e.getDestination().getLatitude() - e.getSource().getLatitude());
+        double y = e.getSource().getLongitude() + u * (e.getDestination().getLongitude() - e.getSource().getLongitude());
 
         // create new connection vertex lying on the edge
         Vertex connectionVertex = new Vertex(e.getName() + "-" + v.getName(), VertexType.CONNECTION, x, y, v.getFloor());
@@ -299,21 +1070,48 @@ public class Graph implements Serializable {
         addEdge(connectionVertex, v, weight, e.getName() + "-" + v.getName());
     }
 
+    /**
+     * Returns where the closest point to a vertex on the line of an edge is, on the plane of the map
+     * @param v: the vertex
+     * @param e: the edge
+     * @return 0 at the source of the edge, 1 at its destination
+     */
+    double getPositionOnEdge(Vertex v, Edge e) {
+        double x1 = getX(e.getSource());
+        double y1 = getY(e.getSource());
+        double dx = getX(e.getDestination()) - x1;
+        double dy = getY(e.getDestination()) - y1;
+        return ((getX(v) - x1) * dx + (getY(v) - y1) * dy) / (dx * dx + dy * dy);
+    }
+
+    /**
+     * Returns the distance in meters between a vertex and the closest point of an edge, ignoring floors
+     * @param v: the vertex
+     * @param e: the edge
+     * @return the distance between the vertex and the edge
+     */
+    double getDistanceToEdge(Vertex v, Edge e) {
+        double u = getPositionOnEdge(v, e);
+        // the edge has no length, or the vertex is beyond one of its ends
+        if (Double.isNaN(u) || u <= 0) {
+            return computeDistance(v, e.getSource());
+        }
+        if (u >= 1) {
+            return computeDistance(v, e.getDestination());
+        }
+        double x = getX(e.getSource()) + u * (getX(e.getDestination()) - getX(e.getSource()));
+        double y = getY(e.getSource()) + u * (getY(e.getDestination()) - getY(e.getSource()));
+        return Math.hypot(x - getX(v), y - getY(v));
+    }
+
     /**
      * Connects a vertex to the closest edge with the given name
      * @param v: the vertex
      * @param edgeName: the name of the edge
      */
     public void connectVertexToEdgeByName(Vertex v, String edgeName) {
-        // search for all edges with the given name
-        List<Edge> edges = new ArrayList<>();
-        for (Vertex vertex : map.keySet()) {
-            for (Edge edge : map.get(vertex)) {
-                if (edge.getName().equals(edgeName) && !edges.contains(edge)) {
-                    edges.add(edge);
-                }
-            }
-        }
+        // all edges with the given name
+        List<Edge> edges = getEdgesByName(edgeName);
 
         if (edges.isEmpty()) {
             return;
@@ -324,23 +1122,20 @@ public class Graph implements Serializable {
             return;
         }
 
+        // add the vertex first, so that its position on the plane is known
+        if (!map.containsKey(v))
+            addVertex(v);
+
         // find the closest edge
         Edge closestEdge = null;
         double minDistance = Double.MAX_VALUE;
         for (Edge edge : edges) {
-            double x1 = edge.getSource().getLatitude();
-            double y1 = edge.getSource().getLongitude();
-            double x2 = edge.getDestination().getLatitude();
-            double y2 = edge.getDestination().getLongitude();
-            double x3 = v.getLatitude();
-            double y3 = v.getLongitude();
-
-            // calculate the closest point
-            double u = ((x3 - x1) * (x2 - x1) + (y3 - y1) * (y2 - y1)) / (Math.pow(x2 - x1, 2) + Math.pow(y2 - y1, 2));
-            double x = x1 + u * (x2 - x1);
-            double y = y1 + u * (y2 - y1);
-
-            double distance = Math.sqrt(Math.pow(x - x3, 2) + Math.pow(y - y3, 2));
+            // calculate the closest point on the line of the edge
+            double u = getPositionOnEdge(v, edge);
+            double x = getX(edge.getSource()) + u * (getX(edge.getDestination()) - getX(edge.getSource()));
+            double y = getY(edge.getSource()) + u * (getY(edge.getDestination()) - getY(edge.getSource()));
+
+            double distance = Math.hypot(x - getX(v), y - getY(v));
             if (distance < minDistance) {
                 minDistance = distance;
                 closestEdge = edge;
@@ -359,18 +1154,7 @@ public class Graph implements Serializable {
      * @return the angle between the three vertices
      */
     public double getAngle(Vertex v1, Vertex v2, Vertex v3) {
-        double x1 = v1.getLongitude();
-        double y1 = v1.getLatitude();
-        double x2 = v2.getLongitude();
-        double y2 = v2.getLatitude();
-        double x3 = v3.getLongitude();
-        double y3 = v3.getLatitude();
-
-        double a = Math.pow(x2 - x1, 2) + Math.pow(y2 - y1, 2);
-        double b = Math.pow(x2 - x3, 2) + Math.pow(y2 - y3, 2);
-        double c = Math.pow(x3 - x1, 2) + Math.pow(y3 - y1, 2);
-
-        return Math.acos((a + b - c) / Math.sqrt(4 * a * b));
+        return Math.abs(getSignedAngle(v1, v2, v3));
     }
 
     /**
@@ -381,19 +1165,32 @@ public class Graph implements Serializable {
      * @return the signed angle between the three vertices
      */
     public double getSignedAngle(Vertex v1, Vertex v2, Vertex v3) {
-        double x1 = v1.getLongitude();
-        double y1 = v1.getLatitude();
-        double x2 = v2.getLongitude();
-        double y2 = v2.getLatitude();
-        double x3 = v3.getLongitude();
-        double y3 = v3.getLatitude();
-
-        double a = Math.pow(x2 - x1, 2) + Math.pow(y2 - y1, 2);
-        double b = Math.pow(x2 - x3, 2) + Math.pow(y2 - y3, 2);
-        double c = Math.pow(x3 - x1, 2) + Math.pow(y3 - y1, 2);
-
-        double angle = Math.acos((a + b - c) / Math.sqrt(4 * a * b));
-        double cross = (x2 - x1) * (y3 - y1) - (y2 - y1) * (x3 - x1);
+        if (projection == null) {
+            // only outside vertices, which have no position
+            return Double.NaN;
+        }
+        return getSignedAngle(getX(v1), getY(v1), getX(v2), getY(v2), getX(v3), getY(v3));
+    }
+
+    /**
+     * Returns the signed angle at the second of three points on the plane of the map
+     * @return the angle in radians, positive when the third point is on the left of the direction
+     * from the first point to the second one, NaN if two points are at the same position
+     */
+    static double getSignedAngle(double x1, double y1, double x2, double y2, double x3, double y3) {
+        // vectors from the middle point to the other two
+        double ax = x1 - x2;
+        double ay = y1 - y2;
+        double bx = x3 - x2;
+        double by = y3 - y2;
+
+        if ((ax == 0 && ay == 0) || (bx == 0 && by == 0)) {
+            // no angle if two vertices are at the same position, e.g. stairs on different floors
+            return Double.NaN;
+        }
+
+        double cross = ay * bx - ax * by;
+        double angle = Math.atan2(Math.abs(cross), ax * bx + ay * by);
         if (cross < 0) {
             angle = -angle;
         }
@@ -404,32 +1201,42 @@ public class Graph implements Serializable {
      * Computes the distance between two vertices given their latitude and longitude
      * @param v1: the first vertex
      * @param v2: the second vertex
-     * @return the distance between the two vertices
+     * @return the distance between the two vertices in meters, ignoring their floors
      */
     public double computeDistance(Vertex v1, Vertex v2) {
         if (v1.getType() == VertexType.OUTSIDE || v2.getType() == VertexType.OUTSIDE) {
             return 0;
         }
+        if (projection == null) {
+            // the graph has no position yet, measure on the plane at the first vertex
+            LocalProjection plane = new LocalProjection(v1.getLatitude(), v1.getLongitude());
+            return Math.hypot(plane.getX(v2.getLongitude()), plane.getY(v2.getLatitude()));
+        }
+        double dx = getX(v1) - getX(v2);
+        double dy = getY(v1) - getY(v2);
+        return Math.sqrt(dx * dx + dy * dy);
+    }
 
-        double x1 = v1.getLongitude();
-        double y1 = v1.getLatitude();
-        double x2 = v2.getLongitude();
-        double y2 = v2.getLatitude();
-
-
-        // calculate the distance in meters: https://en.wikipedia.org/wiki/Haversine_formula
-        double R = 6371000; // radius of Earth in meters
-        double lat1 = Math.toRadians(y1);
-        double lat2 = Math.toRadians(y2);
-        double deltaLat = Math.toRadians(y2 - y1);
-        double deltaLon = Math.toRadians(x2 - x1);
-
-        double a = Math.sin(deltaLat / 2) * Math.sin(deltaLat / 2) +
-                Math.cos(lat1) * Math.cos(lat2) *
-                        Math.sin(deltaLon / 2) * Math.sin(deltaLon / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    /**
+     * Returns the meters east of the origin of the map of a vertex, cached for the vertices of the graph
+     */
+    private double getX(Vertex v) {
+        Integer id = vertexIds.get(v.getName());
+        if (id != null && vertexList.get(id) == v) {
+            return xs[id];
+        }
+        return projection.getX(v.getLongitude());
+    }
 
-        return R * c;
+    /**
+     * Returns the meters north of the origin of the map of a vertex, cached for the vertices of the graph
+     */
+    private double getY(Vertex v) {
+        Integer id = vertexIds.get(v.getName());
+        if (id != null && vertexList.get(id) == v) {
+            return ys[id];
+        }
+        return projection.getY(v.getLatitude());
     }
 
     /**
@@ -495,9 +1302,20 @@ public class Graph implements Serializable {
      * @return the instructions
      */
     public Pair<List<Vertex>,List<String>> toSimpleInstructions(List<Vertex> path) {
+        return toSimpleInstructions(path, RoutingProfile.SHORTEST);
+    }
+
+    /**
+     * Returns the instructions to follow a path searched in a routing profile
+     * @param path the path
+     * @param profile the routing profile the path was searched with
+     * @return the instructions
+     */
+    public Pair<List<Vertex>,List<String>> toSimpleInstructions(List<Vertex> path, RoutingProfile profile) {
         List<String> instructions = new ArrayList<>();
         List<Vertex> simplifiedPath = new ArrayList<>();
-        path = simplifyPath(path, 20);
+        // the turns along compacted edges are part of the instructions
+        path = simplifyPath(expandPath(path, profile), 20);
 
         if (path.size() == 1) {
             instructions.add("You are already at " + path.get(0).getName());
@@ -651,13 +1469,13 @@ public class Graph implements Serializable {
      * @return the graph representing the USI campus
      */
     public Graph generateUSIMap() {
-        Graph graph = new Graph("USI Campus EST");
+        GraphBuilder builder = new GraphBuilder("USI Campus EST");
         // create D corridor
-        Vertex D0_CorridorEnd = new Vertex("Corridor D0", VertexType.CONNECTION, 46.012324, 8.961444, 0);
+        Vertex D0_CorridorEnd = new Vertex("Corridor D0 End", VertexType.CONNECTION, 46.012324, 8.961444, 0);
         Vertex D0_CorridorStart = new Vertex("Corridor D0", VertexType.CONNECTION, 46.011607, 8.961346, 0);
-        graph.addVertex(D0_CorridorEnd);
-        graph.addVertex(D0_CorridorStart);
-        graph.addEdge(D0_CorridorStart, D0_CorridorEnd, computeDistance(D0_CorridorStart, D0_CorridorEnd), "Corridor D0");
+        builder.addVertex(D0_CorridorEnd);
+        builder.addVertex(D0_CorridorStart);
+        builder.addEdge(D0_CorridorStart, D0_CorridorEnd, "Corridor D0");
 
         Vertex D_Door = new Vertex("Door1 Sector D", VertexType.DOOR, 46.011951, 8.961339, 0);
         Vertex D_Door2 = new Vertex("Door2 Sector D", VertexType.DOOR, 46.011815, 8.961308, 0);
@@ -667,38 +1485,39 @@ public class Graph implements Serializable {
         Vertex D002 = new Vertex("D0.02", VertexType.ROOM, 46.012090, 8.961486, 0);
         Vertex D004 = new Vertex("D0.04", VertexType.ROOM, 46.011884, 8.961442, 0);
 
-        graph.connectVertexToEdgeByName(D_Door, "Corridor D0");
-        graph.connectVertexToEdgeByName(D_Door2, "Corridor D0");
-        graph.connectVertexToEdgeByName(D002, "Corridor D0");
-        graph.connectVertexToEdgeByName(D004, "Corridor D0");
-        graph.connectVertexToEdgeByName(Stairs_base, "Corridor D0");
+        builder.attach(D_Door, "Corridor D0");
+        builder.attach(D_Door2, "Corridor D0");
+        builder.attach(D002, "Corridor D0");
+        builder.attach(D004, "Corridor D0");
+        builder.attach(Stairs_base, "Corridor D0");
 
-        graph.addVertex(Stairs_top);
-        graph.addEdge(Stairs_top, Stairs_base, computeDistance(Stairs_top, Stairs_base), "Stairs D");
+        builder.addEdge(Stairs_top, Stairs_base, "Stairs D");
 
 
         // First floor
         // Corridor D1
-        Vertex D1_CorridorEnd = new Vertex("Corridor D1", VertexType.CONNECTION, 46.012324, 8.961444, 1);
+        Vertex D1_CorridorEnd = new Vertex("Corridor D1 End", VertexType.CONNECTION, 46.012324, 8.961444, 1);
         Vertex D1_CorridorStart = new Vertex("Corridor D1", VertexType.CONNECTION, 46.011607, 8.961346, 1);
-        graph.addVertex(D1_CorridorEnd);
-        graph.addVertex(D1_CorridorStart);
-        graph.addEdge(D1_CorridorStart, D1_CorridorEnd, computeDistance(D1_CorridorStart, D1_CorridorEnd), "D1 Corridor");
+        builder.addVertex(D1_CorridorEnd);
+        builder.addVertex(D1_CorridorStart);
+        builder.addEdge(D1_CorridorStart, D1_CorridorEnd, "D1 Corridor");
         // connect to stairs
-        graph.connectVertexToEdgeByName(Stairs_top, "D1 Corridor");
+        builder.attach(Stairs_top, "D1 Corridor");
 
         Vertex D115 = new Vertex("D1.15", VertexType.ROOM, 46.011589, 8.961352, 1);
-        graph.connectVertexToEdgeByName(D115, "D1 Corridor");
+        builder.attach(D115, "D1 Corridor");
 
         // corridor C1
         Vertex C1_CorridorEnd = new Vertex("Corridor C1", VertexType.CONNECTION, 46.0123761558387, 8.960759281466686, 1);
-        graph.addVertex(C1_CorridorEnd);
-        graph.addEdge(D1_CorridorEnd, C1_CorridorEnd, computeDistance(D1_CorridorEnd, C1_CorridorEnd), "C1 Corridor");
+        builder.addVertex(C1_CorridorEnd);
+        builder.addEdge(D1_CorridorEnd, C1_CorridorEnd, "C1 Corridor");
 
         Vertex C1_03 = new Vertex("C1.03", VertexType.ROOM, 46.01239944086005, 8.961342661886274, 1);
-        graph.connectVertexToEdgeByName(C1_03, "C1 Corridor");
+        builder.attach(C1_03, "C1 Corridor");
         Vertex C1_04 = new Vertex("C1.04", VertexType.ROOM, 46.01239944086005, 8.961342661886274, 1);
-        graph.connectVertexToEdgeByName(C1_04, "C1 Corridor");
+        builder.attach(C1_04, "C1 Corridor");
+
+        Graph graph = builder.build();
 
         Vertex Outside = new Vertex("Outside", VertexType.OUTSIDE, 46.0123761558387, 8.960759281466686, 0);
         graph.addVertex(Outside);
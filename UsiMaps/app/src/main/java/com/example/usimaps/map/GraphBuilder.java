@@ -0,0 +1,192 @@
+package com.example.usimaps.map;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * GraphBuilder class
+ * Collects the vertices, the edges and the vertices to attach to named edges of a map, then builds
+ * the graph at once. The points where vertices attach to an edge are sorted along it, and the edge
+ * is replaced by the chain of its pieces, so no edge is left in parallel with its own pieces as
+ * when connectVertexToEdgeByName is called for every vertex.
+ */
+public final class GraphBuilder {
+    private final String mapName;
+    private final List<Vertex> vertices = new ArrayList<>();
+    private final List<Edge> edges = new ArrayList<>();
+    // vertices to attach and the name of the edges to attach them to, in insertion order
+    private final Map<Vertex, String> attachments = new LinkedHashMap<>();
+
+    /**
+     * Constructor
+     * @param mapName: the name of the map
+     */
+    public GraphBuilder(String mapName) {
+        this.mapName = mapName;
+    }
+
+    /**
+     * Adds a vertex
+     * @param v: the vertex
+     * @return this builder
+     */
+    public GraphBuilder addVertex(Vertex v) {
+        vertices.add(v);
+        return this;
+    }
+
+    /**
+     * Adds an edge weighing the distance between its vertices
+     * @param source: the source vertex
+     * @param destination: the destination vertex
+     * @param name: the name of the edge
+     * @return this builder
+     */
+    public GraphBuilder addEdge(Vertex source, Vertex destination, String name) {
+        return addEdge(source, destination, Double.NaN, name);
+    }
+
+    /**
+     * Adds an edge
+     * @param source: the source vertex
+     * @param destination: the destination vertex
+     * @param weight: the weight of the edge
+     * @param name: the name of the edge
+     * @return this builder
+     */
+    public GraphBuilder addEdge(Vertex source, Vertex destination, double weight, String name) {
+        edges.add(new Edge(source, destination, weight, name));
+        return this;
+    }
+
+    /**
+     * Adds a vertex connected to the closest edge with the given name, see Graph.connectVertexToEdgeByName
+     * @param v: the vertex
+     * @param edgeName: the name of the edge
+     * @return this builder
+     */
+    public GraphBuilder attach(Vertex v, String edgeName) {
+        vertices.add(v);
+        attachments.put(v, edgeName);
+        return this;
+    }
+
+    /**
+     * Builds the graph
+     * @return the graph with the vertices, the edges and the attached vertices
+     */
+    public Graph build() {
+        Graph graph = new Graph(mapName);
+        for (Vertex v : vertices) {
+            // a vertex can be added and attached
+            if (graph.getVertexId(v) == -1) {
+                graph.addVertex(v);
+            }
+        }
+
+        // weigh the edges on the plane of the map and group them by name
+        Map<String, List<Edge>> edgesByName = new HashMap<>();
+        for (int i = 0; i < edges.size(); i++) {
+            Edge e = edges.get(i);
+            if (Double.isNaN(e.getWeight())) {
+                e = new Edge(e.getSource(), e.getDestination(), graph.computeDistance(e.getSource(), e.getDestination()), e.getName());
+                edges.set(i, e);
+            }
+            List<Edge> named = edgesByName.get(e.getName());
+            if (named == null) {
+                named = new ArrayList<>();
+                edgesByName.put(e.getName(), named);
+            }
+            named.add(e);
+        }
+
+        // find where every vertex attaches: the closest point of the closest edge with the name
+        Map<Edge, List<Attachment>> attached = new HashMap<>();
+        for (Map.Entry<Vertex, String> entry : attachments.entrySet()) {
+            Vertex v = entry.getKey();
+            List<Edge> named = edgesByName.get(entry.getValue());
+            if (named == null) {
+                continue;
+            }
+            Edge closestEdge = null;
+            double minDistance = Double.MAX_VALUE;
+            for (Edge e : named) {
+                double distance = graph.getDistanceToEdge(v, e);
+                if (distance < minDistance) {
+                    minDistance = distance;
+                    closestEdge = e;
+                }
+            }
+            List<Attachment> onEdge = attached.get(closestEdge);
+            if (onEdge == null) {
+                onEdge = new ArrayList<>();
+                attached.put(closestEdge, onEdge);
+            }
+            double u = graph.getPositionOnEdge(v, closestEdge);
+            // attach to the closest point of the edge, to its source if it has no length
+            u = Double.isNaN(u) ? 0 : Math.max(0, Math.min(1, u));
+            onEdge.add(new Attachment(v, u));
+        }
+
+        for (Edge e : edges) {
+            List<Attachment> onEdge = attached.get(e);
+            if (onEdge == null) {
+                graph.addEdge(e.getSource(), e.getDestination(), e.getWeight(), e.getName());
+            } else {
+                split(graph, e, onEdge);
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Adds the pieces of an edge between its attachment points, sorted along it, and the attached vertices
+     */
+    private static void split(Graph graph, Edge e, List<Attachment> onEdge) {
+        Collections.sort(onEdge, (a, b) -> Double.compare(a.position, b.position));
+        Vertex previous = e.getSource();
+        double previousPosition = 0;
+        for (Attachment a : onEdge) {
+            Vertex v = a.vertex;
+            String name = e.getName() + "-" + v.getName();
+            Vertex connection;
+            if (a.position == 0) {
+                connection = e.getSource();
+            } else if (a.position == 1) {
+                connection = e.getDestination();
+            } else {
+                // new connection vertex lying on the edge
+                Vertex source = e.getSource();
+                Vertex destination = e.getDestination();
+                connection = new Vertex(name, VertexType.CONNECTION,
+                        source.getLatitude() + a.position * (destination.getLatitude() - source.getLatitude()),
+                        source.getLongitude() + a.position * (destination.getLongitude() - source.getLongitude()),
+                        v.getFloor());
+                graph.addVertex(connection);
+                // the pieces share the weight of the edge
+                graph.addEdge(previous, connection, e.getWeight() * (a.position - previousPosition), e.getName());
+                previous = connection;
+                previousPosition = a.position;
+            }
+            graph.addEdge(connection, v, graph.computeDistance(v, connection), name);
+        }
+        graph.addEdge(previous, e.getDestination(), e.getWeight() * (1 - previousPosition), e.getName());
+    }
+
+    /**
+     * Vertex attached to an edge, at a position between 0 at the source of the edge and 1 at its destination
+     */
+    private static final class Attachment {
+        final Vertex vertex;
+        final double position;
+
+        Attachment(Vertex vertex, double position) {
+            this.vertex = vertex;
+            this.position = position;
+        }
+    }
+}
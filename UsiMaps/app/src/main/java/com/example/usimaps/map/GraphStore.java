@@ -0,0 +1,84 @@
+package com.example.usimaps.map;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * GraphStore class
+ * Holds the current snapshot of every map, shared by the whole app. A snapshot is frozen: it cannot
+ * be modified, so any thread can route on it without locks. An edit is applied to a copy of the
+ * snapshot, which then replaces it atomically; readers keep the snapshot they hold until they ask
+ * for the current one again.
+ */
+public final class GraphStore {
+    private static final Map<String, GraphStore> stores = new HashMap<>();
+
+    private final AtomicReference<Graph> snapshot = new AtomicReference<>();
+
+    /**
+     * A change to a working copy of a map
+     */
+    public interface Edit {
+        void apply(Graph graph);
+    }
+
+    private GraphStore() {
+    }
+
+    /**
+     * Returns the store of a map
+     * @param mapName: the name of the map
+     * @return the store, empty until a graph is loaded
+     */
+    public static GraphStore get(String mapName) {
+        synchronized (stores) {
+            GraphStore store = stores.get(mapName);
+            if (store == null) {
+                store = new GraphStore();
+                stores.put(mapName, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Returns the current snapshot of the map
+     * @return the snapshot, or null if no graph was loaded
+     */
+    public Graph getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Publishes a loaded graph as the first snapshot of the map, if the store is still empty
+     * @param graph: the loaded graph, it is frozen
+     * @return the current snapshot, the given graph unless another one was loaded before
+     */
+    public Graph initialize(Graph graph) {
+        graph.freeze();
+        snapshot.compareAndSet(null, graph);
+        return snapshot.get();
+    }
+
+    /**
+     * Applies an edit to a copy of the current snapshot and publishes the copy. If another edit
+     * was published in the meantime, the edit is applied again to the new snapshot.
+     * @param edit: the change to apply, it may run more than once
+     * @return the published snapshot
+     */
+    public Graph update(Edit edit) {
+        while (true) {
+            Graph base = snapshot.get();
+            if (base == null) {
+                throw new IllegalStateException("No graph was loaded in the store");
+            }
+            Graph copy = base.copy();
+            edit.apply(copy);
+            copy.freeze();
+            if (snapshot.compareAndSet(base, copy)) {
+                return copy;
+            }
+        }
+    }
+}
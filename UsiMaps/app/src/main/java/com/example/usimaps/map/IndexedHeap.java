@@ -0,0 +1,169 @@
+package com.example.usimaps.map;
+
+import java.util.Arrays;
+
+/**
+ * IndexedHeap class
+ * A 4-ary min-heap of vertex ids with double keys. Every vertex is at most once in the heap,
+ * its position is indexed so that its key can be decreased in place.
+ */
+final class IndexedHeap {
+    private static final int ARITY = 4;
+
+    private final int[] heap;
+    private final double[] keys;
+    // position of every vertex in the heap, -1 if it is not in the heap
+    private final int[] positions;
+    private int size = 0;
+
+    /**
+     * Constructor
+     * @param capacity: the number of vertices, ids range from 0 to capacity - 1
+     */
+    IndexedHeap(int capacity) {
+        heap = new int[capacity];
+        keys = new double[capacity];
+        positions = new int[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    /**
+     * Returns the number of vertices in the heap
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the heap is empty
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns whether a vertex is in the heap
+     * @param vertex: the id of the vertex
+     */
+    boolean contains(int vertex) {
+        return positions[vertex] != -1;
+    }
+
+    /**
+     * Returns the key of a vertex in the heap
+     * @param vertex: the id of the vertex, it must be in the heap
+     */
+    double getKey(int vertex) {
+        return keys[vertex];
+    }
+
+    /**
+     * Inserts a vertex, or changes its key if it is already in the heap
+     * @param vertex: the id of the vertex
+     * @param key: the new key of the vertex
+     */
+    void update(int vertex, double key) {
+        int position = positions[vertex];
+        if (position == -1) {
+            position = size++;
+            heap[position] = vertex;
+            positions[vertex] = position;
+            keys[vertex] = key;
+            siftUp(position);
+        } else if (key < keys[vertex]) {
+            keys[vertex] = key;
+            siftUp(position);
+        } else {
+            keys[vertex] = key;
+            siftDown(position);
+        }
+    }
+
+    /**
+     * Returns the vertex with the smallest key without removing it
+     * @return the id of the vertex, it must not be empty
+     */
+    int peek() {
+        return heap[0];
+    }
+
+    /**
+     * Returns the smallest key in the heap
+     * @return the key, or infinity if the heap is empty
+     */
+    double peekKey() {
+        return size == 0 ? Double.POSITIVE_INFINITY : keys[heap[0]];
+    }
+
+    /**
+     * Removes the vertex with the smallest key
+     * @return the id of the vertex, it must not be empty
+     */
+    int poll() {
+        int top = heap[0];
+        positions[top] = -1;
+        size--;
+        if (size > 0) {
+            int last = heap[size];
+            heap[0] = last;
+            positions[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /**
+     * Removes all the vertices, in time proportional to the size of the heap
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int position) {
+        int vertex = heap[position];
+        double key = keys[vertex];
+        while (position > 0) {
+            int parent = (position - 1) / ARITY;
+            int other = heap[parent];
+            if (keys[other] <= key) {
+                break;
+            }
+            heap[position] = other;
+            positions[other] = position;
+            position = parent;
+        }
+        heap[position] = vertex;
+        positions[vertex] = position;
+    }
+
+    private void siftDown(int position) {
+        int vertex = heap[position];
+        double key = keys[vertex];
+        while (true) {
+            int first = position * ARITY + 1;
+            if (first >= size) {
+                break;
+            }
+            // smallest of the children
+            int child = first;
+            int end = Math.min(first + ARITY, size);
+            for (int i = first + 1; i < end; i++) {
+                if (keys[heap[i]] < keys[heap[child]]) {
+                    child = i;
+                }
+            }
+            int other = heap[child];
+            if (key <= keys[other]) {
+                break;
+            }
+            heap[position] = other;
+            positions[other] = position;
+            position = child;
+        }
+        heap[position] = vertex;
+        positions[vertex] = position;
+    }
+}
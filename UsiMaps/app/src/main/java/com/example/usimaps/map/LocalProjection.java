@@ -0,0 +1,43 @@
+package com.example.usimaps.map;
+
+/**
+ * LocalProjection class
+ * East-north plane tangent to the earth at an origin, in meters. A map covers a few hundred meters,
+ * so on this plane distances are Euclidean with an error far below a meter, and angles are not
+ * skewed by the longitude degrees getting shorter than the latitude ones.
+ */
+final class LocalProjection {
+    private static final double EARTH_RADIUS = 6371000;
+
+    private final double latitude;
+    private final double longitude;
+    // meters of one degree of longitude and of latitude at the origin
+    private final double metersPerLongitude;
+    private final double metersPerLatitude;
+
+    /**
+     * Constructor
+     * @param latitude: the latitude of the origin
+     * @param longitude: the longitude of the origin
+     */
+    LocalProjection(double latitude, double longitude) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.metersPerLatitude = Math.toRadians(1) * EARTH_RADIUS;
+        this.metersPerLongitude = metersPerLatitude * Math.cos(Math.toRadians(latitude));
+    }
+
+    /**
+     * Returns the meters east of the origin of a longitude
+     */
+    double getX(double longitude) {
+        return (longitude - this.longitude) * metersPerLongitude;
+    }
+
+    /**
+     * Returns the meters north of the origin of a latitude
+     */
+    double getY(double latitude) {
+        return (latitude - this.latitude) * metersPerLatitude;
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.usimaps.map;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import kotlin.Pair;
+
+/**
+ * RouteCache class
+ * Bounded cache of the routes shown to the user: the simplified path and its instructions,
+ * keyed by the map, the endpoints, the routing profile and the version of the graph. When it is full the least
+ * recently used route is evicted. A change to the graph bumps its version, so the routes of
+ * the old graph are never returned again and are evicted over time.
+ * Closures do not change the version: a route is kept while it is still the cheapest, i.e. none
+ * of its edges changed and no edge became cheaper, otherwise it is dropped and routed again.
+ */
+public final class RouteCache {
+    private final Map<Key, CachedRoute> routes;
+
+    /**
+     * Constructor
+     * @param capacity: the maximum number of routes kept
+     */
+    public RouteCache(final int capacity) {
+        // access order: iteration starts from the least recently used route
+        this.routes = new LinkedHashMap<Key, CachedRoute>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedRoute> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached route between two vertices of a graph
+     * @param graph: the graph
+     * @param source: the name of the source vertex
+     * @param destination: the name of the destination vertex
+     * @param profile: the routing profile of the route
+     * @return the path and the instructions, or null if the route is not cached
+     */
+    public synchronized Pair<List<Vertex>, List<String>> get(Graph graph, String source, String destination, RoutingProfile profile) {
+        Key key = new Key(graph, source, destination, profile);
+        CachedRoute entry = routes.get(key);
+        if (entry == null) {
+            return null;
+        }
+        RoutingGraph routing = graph.getRoutingGraph();
+        if (entry.routing != routing) {
+            // the closures changed since the route was cached
+            if (entry.path == null || !routing.isStillCheapest(entry.routing, entry.path, profile)) {
+                routes.remove(key);
+                return null;
+            }
+            entry.routing = routing;
+        }
+        return entry.route;
+    }
+
+    /**
+     * Caches the route between two vertices of a graph
+     * @param graph: the graph
+     * @param source: the name of the source vertex
+     * @param destination: the name of the destination vertex
+     * @param profile: the routing profile of the route
+     * @param route: the path and the instructions, they must not change afterwards
+     */
+    public synchronized void put(Graph graph, String source, String destination, RoutingProfile profile,
+                                 Pair<List<Vertex>, List<String>> route) {
+        put(graph, source, destination, profile, null, route);
+    }
+
+    /**
+     * Caches the route between two vertices of a graph, with the full path it was simplified from:
+     * the route is kept after closures that do not change the path
+     * @param graph: the graph
+     * @param source: the name of the source vertex
+     * @param destination: the name of the destination vertex
+     * @param profile: the routing profile of the route
+     * @param path: the cheapest path of the route, before simplification, null if it is not known
+     * @param route: the path and the instructions, they must not change afterwards
+     */
+    public synchronized void put(Graph graph, String source, String destination, RoutingProfile profile,
+                                 List<Vertex> path, Pair<List<Vertex>, List<String>> route) {
+        route = new Pair<>(Collections.unmodifiableList(route.getFirst()), Collections.unmodifiableList(route.getSecond()));
+        RoutingGraph routing = graph.getRoutingGraph();
+        int[] ids = null;
+        if (path != null) {
+            ids = new int[path.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = routing.getId(path.get(i));
+            }
+        }
+        routes.put(new Key(graph, source, destination, profile), new CachedRoute(route, routing, ids));
+    }
+
+    /**
+     * Returns the number of cached routes
+     */
+    public synchronized int size() {
+        return routes.size();
+    }
+
+    /**
+     * Removes all the cached routes
+     */
+    public synchronized void clear() {
+        routes.clear();
+    }
+
+    /**
+     * Cached route, with the routing snapshot it is known to be the cheapest on
+     */
+    private static final class CachedRoute {
+        private final Pair<List<Vertex>, List<String>> route;
+        private RoutingGraph routing;
+        // ids of the vertices of the full path, null if it is not known
+        private final int[] path;
+
+        CachedRoute(Pair<List<Vertex>, List<String>> route, RoutingGraph routing, int[] path) {
+            this.route = route;
+            this.routing = routing;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Key of a cached route
+     */
+    private static final class Key {
+        private final String mapName;
+        private final long version;
+        private final String source;
+        private final String destination;
+        private final RoutingProfile profile;
+
+        Key(Graph graph, String source, String destination, RoutingProfile profile) {
+            this.mapName = graph.getMapName();
+            this.version = graph.getVersion();
+            this.source = source;
+            this.destination = destination;
+            this.profile = profile;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            Key key = (Key) obj;
+            return version == key.version && profile == key.profile && Objects.equals(mapName, key.mapName)
+                    && Objects.equals(source, key.source) && Objects.equals(destination, key.destination);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mapName, version, source, destination, profile);
+        }
+    }
+}
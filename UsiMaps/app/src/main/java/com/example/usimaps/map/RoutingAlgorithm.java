@@ -0,0 +1,17 @@
+package com.example.usimaps.map;
+
+/**
+ * Routing Algorithm:
+ * DIJKSTRA, A_STAR, BIDIRECTIONAL, CONTRACTION_HIERARCHY, DISTANCE_TABLE, FLOOR_OVERLAY
+ * All algorithms return a shortest path. A* uses the position and the floor of the vertices
+ * to search towards the destination, the bidirectional search grows from both the source and
+ * the destination until they meet: both settle fewer vertices than Dijkstra.
+ * The contraction hierarchy needs a preprocessing of the graph, then settles only a few vertices.
+ * The distance table looks up precomputed routes from the searchable vertices, other routes use Dijkstra.
+ * The floor overlay searches the floors of the source and of the destination, and crosses the other
+ * floors through precomputed routes between their stairs and elevators; routes to outside use A*.
+ */
+public enum RoutingAlgorithm
+{
+    DIJKSTRA, A_STAR, BIDIRECTIONAL, CONTRACTION_HIERARCHY, DISTANCE_TABLE, FLOOR_OVERLAY
+}
@@ -0,0 +1,105 @@
+package com.example.usimaps.map;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * RoutingExecutor class
+ * Runs route requests on a background thread and delivers their results on a result executor,
+ * e.g. the main thread. Requests are grouped by channel, one per screen: a new request cancels
+ * the previous one of its channel, and only the result of the latest request is delivered.
+ * A cancelled request that is already running is interrupted, it can check the interrupt flag
+ * to skip its remaining work.
+ */
+public final class RoutingExecutor {
+    private final ExecutorService executor;
+    private final Executor resultExecutor;
+    // last request of every channel, and its id
+    private final Map<String, Future<?>> requests = new HashMap<>();
+    private final Map<String, Long> latest = new HashMap<>();
+    private long nextId = 0;
+
+    /**
+     * Receives the result of a request
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * Constructor
+     * @param resultExecutor: the executor running the callbacks, e.g. posting to the main thread
+     */
+    public RoutingExecutor(Executor resultExecutor) {
+        this.resultExecutor = resultExecutor;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "routing");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Submits a request, cancelling the previous request of the same channel
+     * @param channel: the channel of the request
+     * @param task: the computation, run on the background thread
+     * @param callback: receives the result on the result executor, unless a newer request was submitted
+     * @return the future of the request
+     */
+    public synchronized <T> Future<T> submit(final String channel, Callable<T> task, final Callback<T> callback) {
+        final long id = nextId++;
+        Future<?> previous = requests.get(channel);
+        if (previous != null) {
+            previous.cancel(true);
+        }
+        latest.put(channel, id);
+        FutureTask<T> request = new FutureTask<T>(task) {
+            @Override
+            protected void done() {
+                if (isCancelled() || !isLatest(channel, id)) {
+                    return;
+                }
+                final T result;
+                try {
+                    result = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                // check again on the result executor, a newer request may arrive in the meantime
+                resultExecutor.execute(() -> {
+                    if (isLatest(channel, id)) {
+                        callback.onResult(result);
+                    }
+                });
+            }
+        };
+        requests.put(channel, request);
+        executor.execute(request);
+        return request;
+    }
+
+    /**
+     * Cancels the last request of a channel, its result is not delivered
+     * @param channel: the channel
+     */
+    public synchronized void cancel(String channel) {
+        Future<?> request = requests.remove(channel);
+        if (request != null) {
+            request.cancel(true);
+        }
+        latest.remove(channel);
+    }
+
+    private synchronized boolean isLatest(String channel, long id) {
+        Long last = latest.get(channel);
+        return last != null && last == id;
+    }
+}
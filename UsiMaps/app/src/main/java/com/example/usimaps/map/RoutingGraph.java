@@ -0,0 +1,1219 @@
+package com.example.usimaps.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import kotlin.Pair;
+
+/**
+ * RoutingGraph class
+ * Immutable compressed-sparse-row (CSR) snapshot of a Graph, used for routing.
+ * Every vertex keeps the id it has in the Graph, the outgoing edges of vertex i are stored in the
+ * targets and weights arrays between offsets[i] (inclusive) and offsets[i + 1] (exclusive).
+ * Floors and vertex types are kept in parallel arrays, so a search never touches a Vertex object.
+ */
+public final class RoutingGraph {
+    private static final byte OUTSIDE = (byte) VertexType.OUTSIDE.ordinal();
+    private static final byte DOOR = (byte) VertexType.DOOR.ordinal();
+    private static final byte STAIR = (byte) VertexType.STAIR.ordinal();
+    private static final byte ELEVATOR = (byte) VertexType.ELEVATOR.ordinal();
+
+    // costs of the fastest profile, in seconds
+    private static final double WALKING_SPEED = 1.3;
+    private static final double STAIR_SECONDS_PER_FLOOR = 15;
+    private static final double ELEVATOR_SECONDS_PER_FLOOR = 5;
+    private static final double ELEVATOR_WAIT_SECONDS = 30;
+    // cost factor of outdoor edges in the profile avoiding outdoors
+    private static final double OUTDOOR_PENALTY = 5;
+    // cost factor of the elevators in the step-free profile, cheaper than ramps of the same length
+    private static final double ELEVATOR_PREFERENCE = 0.5;
+
+    // vertex attributes, indexed by vertex id
+    private final Vertex[] vertices;
+    private final int[] floors;
+    private final byte[] types;
+    // position on the plane of the map in meters
+    private final double[] xs;
+    private final double[] ys;
+    private final Map<Vertex, Integer> ids;
+
+    // edges in CSR layout, indexed by edge id
+    private final int[] offsets;
+    private final int[] targets;
+    private final float[] weights;
+
+    // cost of every edge in every routing profile, indexed by profile ordinal then edge id,
+    // forbidden edges cost infinity. The costs of the shortest profile are the weights.
+    private final float[][] costs;
+
+    // lower bounds used by the A* heuristic, by profile: every edge costs at least distanceScale
+    // times the distance between its vertices, plus floorCost for every floor it changes
+    private final double[] distanceScales;
+    private final double[] floorCosts;
+
+    // snapshot without closures this one was derived from, itself if there are none; derived
+    // snapshots share its vertices and edges, and the edges whose cost changed are closedEdges
+    private final RoutingGraph base;
+    private final int[] closedEdges;
+
+    // fingerprint of the vertices and edges, identifies the snapshot in preprocessed data
+    private final long signature;
+    // contraction hierarchy of the snapshot, built on first use or loaded from the database
+    private volatile ContractionHierarchy hierarchy;
+    // routes from the searchable vertices, built on first use or loaded from the database
+    private volatile DistanceTable distanceTable;
+    // search state reused by the queries of every thread
+    private final ThreadLocal<SearchWorkspace> workspaces;
+    // turns between consecutive edges, built on first use
+    private volatile TurnTable turnTable;
+    // search state of the turn aware queries of every thread, indexed by edge id
+    private final ThreadLocal<SearchWorkspace> edgeWorkspaces;
+    // overlay of the floors of every routing profile, indexed by profile ordinal, built on first use
+    private final FloorOverlay[] floorOverlays;
+
+    /**
+     * Builds the snapshot of the given adjacency map
+     * @param vertexList the vertices of the graph, ordered by id
+     * @param map the adjacency map of the graph
+     * @param xs the meters east of the origin of the map of the vertices, by id
+     * @param ys the meters north of the origin of the map of the vertices, by id
+     */
+    RoutingGraph(List<Vertex> vertexList, Map<Vertex, Set<Edge>> map, double[] xs, double[] ys) {
+        int n = vertexList.size();
+        vertices = new Vertex[n];
+        floors = new int[n];
+        types = new byte[n];
+        this.xs = Arrays.copyOf(xs, n);
+        this.ys = Arrays.copyOf(ys, n);
+        ids = new HashMap<>(n * 2);
+        int edgeCount = 0;
+        for (int id = 0; id < n; id++) {
+            Vertex v = vertexList.get(id);
+            vertices[id] = v;
+            floors[id] = v.getFloor();
+            types[id] = (byte) v.getType().ordinal();
+            ids.put(v, id);
+            edgeCount += map.get(v).size();
+        }
+
+        offsets = new int[n + 1];
+        targets = new int[edgeCount];
+        weights = new float[edgeCount];
+        int edge = 0;
+        for (int i = 0; i < n; i++) {
+            offsets[i] = edge;
+            for (Edge e : map.get(vertices[i])) {
+                targets[edge] = ids.get(e.getDestination());
+                weights[edge] = (float) e.getWeight();
+                edge++;
+            }
+        }
+        offsets[n] = edgeCount;
+
+        RoutingProfile[] profiles = RoutingProfile.values();
+        costs = new float[profiles.length][];
+        distanceScales = new double[profiles.length];
+        floorCosts = new double[profiles.length];
+        for (RoutingProfile profile : profiles) {
+            int p = profile.ordinal();
+            costs[p] = profile == RoutingProfile.SHORTEST ? weights : computeCosts(profile);
+            distanceScales[p] = computeDistanceScale(costs[p]);
+            floorCosts[p] = computeFloorCost(costs[p], distanceScales[p]);
+        }
+        floorOverlays = new FloorOverlay[profiles.length];
+        base = this;
+        closedEdges = new int[0];
+        signature = computeSignature();
+        workspaces = ThreadLocal.withInitial(() -> new SearchWorkspace(n));
+        int m = edgeCount;
+        edgeWorkspaces = ThreadLocal.withInitial(() -> new SearchWorkspace(m));
+    }
+
+    /**
+     * Derives a snapshot with closed or re-weighted edges, sharing the vertices and the edges of the base
+     * @param base the snapshot without closures
+     * @param factors the factor of the cost of every edge in every profile, infinity if it is closed
+     */
+    RoutingGraph(RoutingGraph base, double[] factors) {
+        this.base = base;
+        vertices = base.vertices;
+        floors = base.floors;
+        types = base.types;
+        xs = base.xs;
+        ys = base.ys;
+        ids = base.ids;
+        offsets = base.offsets;
+        targets = base.targets;
+        int count = 0;
+        for (double factor : factors) {
+            if (factor != 1) {
+                count++;
+            }
+        }
+        closedEdges = new int[count];
+        count = 0;
+        for (int e = 0; e < factors.length; e++) {
+            if (factors[e] != 1) {
+                closedEdges[count++] = e;
+            }
+        }
+
+        weights = scale(base.weights, factors);
+        RoutingProfile[] profiles = RoutingProfile.values();
+        costs = new float[profiles.length][];
+        distanceScales = new double[profiles.length];
+        floorCosts = new double[profiles.length];
+        for (RoutingProfile profile : profiles) {
+            int p = profile.ordinal();
+            costs[p] = profile == RoutingProfile.SHORTEST ? weights : scale(base.costs[p], factors);
+            distanceScales[p] = computeDistanceScale(costs[p]);
+            floorCosts[p] = computeFloorCost(costs[p], distanceScales[p]);
+        }
+        floorOverlays = new FloorOverlay[profiles.length];
+        signature = computeSignature();
+        // the searches of one thread never overlap, the snapshots of a graph can share their state
+        workspaces = base.workspaces;
+        edgeWorkspaces = base.edgeWorkspaces;
+    }
+
+    private static float[] scale(float[] costs, double[] factors) {
+        float[] result = new float[costs.length];
+        for (int e = 0; e < costs.length; e++) {
+            result[e] = (float) (costs[e] * factors[e]);
+        }
+        return result;
+    }
+
+    /**
+     * Computes a fingerprint of the vertices and of the edges of the snapshot
+     */
+    private long computeSignature() {
+        long hash = vertices.length;
+        for (int v = 0; v < vertices.length; v++) {
+            hash = 31 * hash + vertices[v].getName().hashCode();
+            hash = 31 * hash + floors[v];
+            hash = 31 * hash + types[v];
+            // the order of the edges of a vertex does not matter
+            long edges = 0;
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                long edge = (long) targets[e] << 32 | (Float.floatToIntBits(weights[e]) & 0xffffffffL);
+                edges += edge * 0x9E3779B97F4A7C15L ^ edge >>> 29;
+            }
+            hash = 31 * hash + edges;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the snapshot without closures this snapshot was derived from, or itself
+     */
+    RoutingGraph getBase() {
+        return base;
+    }
+
+    /**
+     * Returns the edges whose cost was changed by closures, compared to the base snapshot
+     */
+    int[] getClosedEdges() {
+        return closedEdges;
+    }
+
+    /**
+     * Returns the fingerprint of the snapshot: snapshots of equal graphs have equal signatures
+     */
+    public long getSignature() {
+        return signature;
+    }
+
+    /**
+     * Returns the contraction hierarchy of the snapshot, building it on first use
+     * @return the contraction hierarchy
+     */
+    public ContractionHierarchy getContractionHierarchy() {
+        if (hierarchy == null) {
+            hierarchy = ContractionHierarchy.build(this);
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Uses a contraction hierarchy that was built before, e.g. loaded from the database
+     * @param hierarchy the contraction hierarchy
+     * @return true if the hierarchy was built for an equal snapshot and is used
+     */
+    public boolean setContractionHierarchy(ContractionHierarchy hierarchy) {
+        if (hierarchy == null || hierarchy.getSignature() != signature) {
+            return false;
+        }
+        this.hierarchy = hierarchy;
+        return true;
+    }
+
+    /**
+     * Computes the cost of every edge in a routing profile. Costs are symmetric, an edge costs
+     * the same in both directions, as the bidirectional searches require.
+     * @param profile the routing profile
+     * @return the costs, indexed by edge id
+     */
+    private float[] computeCosts(RoutingProfile profile) {
+        float[] result = new float[weights.length];
+        for (int v = 0; v < vertices.length; v++) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int w = targets[e];
+                double cost = weights[e];
+                switch (profile) {
+                    case FASTEST:
+                        int floorChange = Math.abs(floors[v] - floors[w]);
+                        if (floorChange > 0 && types[v] == STAIR && types[w] == STAIR) {
+                            cost = floorChange * STAIR_SECONDS_PER_FLOOR;
+                        } else if (floorChange > 0 && types[v] == ELEVATOR && types[w] == ELEVATOR) {
+                            cost = floorChange * ELEVATOR_SECONDS_PER_FLOOR;
+                        } else {
+                            cost = weights[e] / WALKING_SPEED;
+                            if ((types[v] == ELEVATOR) != (types[w] == ELEVATOR)) {
+                                // half of the wait when entering the elevator, half when leaving it
+                                cost += ELEVATOR_WAIT_SECONDS / 2;
+                            }
+                        }
+                        break;
+                    case STEP_FREE:
+                        if (types[v] == STAIR || types[w] == STAIR) {
+                            cost = Double.POSITIVE_INFINITY;
+                        } else if (floors[v] != floors[w] && types[v] == ELEVATOR && types[w] == ELEVATOR) {
+                            cost *= ELEVATOR_PREFERENCE;
+                        }
+                        break;
+                    case AVOID_OUTDOORS:
+                        // outdoor walks are edges between two doors, the edges of outside vertices
+                        // only matter for routes to them, the other routes never enter them
+                        if (types[v] == OUTSIDE || types[w] == OUTSIDE || (types[v] == DOOR && types[w] == DOOR)) {
+                            cost *= OUTDOOR_PENALTY;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                result[e] = (float) cost;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Computes the largest scale such that no edge weighs less than scale times the distance
+     * between its vertices. Edges of outside vertices are ignored, their distance is always 0.
+     * @param costs the costs of the edges
+     * @return the scale of the distance lower bound
+     */
+    private double computeDistanceScale(float[] costs) {
+        double scale = Double.POSITIVE_INFINITY;
+        for (int v = 0; v < vertices.length; v++) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int w = targets[e];
+                if (types[v] == OUTSIDE || types[w] == OUTSIDE) {
+                    continue;
+                }
+                double distance = distance(v, w);
+                if (distance > 0) {
+                    scale = Math.min(scale, costs[e] / distance);
+                }
+            }
+        }
+        if (scale == Double.POSITIVE_INFINITY) {
+            return 0;
+        }
+        // shrink the scale slightly so that rounding errors cannot overestimate a path
+        return scale * (1 - 1e-6);
+    }
+
+    /**
+     * Computes the lowest cost of changing one floor, on top of the distance lower bound.
+     * It comes from the cheapest edge changing floor, i.e. a stair or elevator edge.
+     * @param costs the costs of the edges
+     * @param scale the scale of the distance lower bound
+     * @return the floor change lower bound
+     */
+    private double computeFloorCost(float[] costs, double scale) {
+        double cost = Double.POSITIVE_INFINITY;
+        for (int v = 0; v < vertices.length; v++) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int w = targets[e];
+                int floorChange = Math.abs(floors[v] - floors[w]);
+                if (floorChange == 0 || types[v] == OUTSIDE || types[w] == OUTSIDE) {
+                    continue;
+                }
+                double extra = (costs[e] - scale * distance(v, w)) / floorChange;
+                cost = Math.min(cost, Math.max(0, extra));
+            }
+        }
+        if (cost == Double.POSITIVE_INFINITY) {
+            return 0;
+        }
+        return cost * (1 - 1e-6);
+    }
+
+    /**
+     * Returns the distance in meters between two vertices, ignoring their floors
+     */
+    private double distance(int v, int w) {
+        double dx = xs[v] - xs[w];
+        double dy = ys[v] - ys[w];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Returns a lower bound of the cost of any path from a vertex to the destination, used by A*.
+     * The bound is consistent: it never decreases by more than the weight of an edge.
+     * Outside vertices are connected to every door at no cost, so the bound is 0 when they are involved.
+     * @param v the id of the vertex
+     * @param destination the id of the destination
+     * @param profile the routing profile
+     * @return the lower bound
+     */
+    double estimate(int v, int destination, RoutingProfile profile) {
+        if (types[v] == OUTSIDE || types[destination] == OUTSIDE) {
+            return 0;
+        }
+        int p = profile.ordinal();
+        return distanceScales[p] * distance(v, destination) + floorCosts[p] * Math.abs(floors[v] - floors[destination]);
+    }
+
+    /**
+     * Returns the distance table of the snapshot, building it on first use
+     * @return the distance table
+     */
+    public DistanceTable getDistanceTable() {
+        if (distanceTable == null) {
+            distanceTable = DistanceTable.build(this);
+        }
+        return distanceTable;
+    }
+
+    /**
+     * Uses a distance table that was built before, e.g. loaded from the database
+     * @param distanceTable the distance table
+     * @return true if the table was built for an equal snapshot and is used
+     */
+    public boolean setDistanceTable(DistanceTable distanceTable) {
+        if (distanceTable == null || distanceTable.getSignature() != signature) {
+            return false;
+        }
+        this.distanceTable = distanceTable;
+        return true;
+    }
+
+    /**
+     * Returns whether the distance table holds the route between two vertices
+     */
+    private boolean inDistanceTable(int source, int destination) {
+        return getDistanceTable().hasSource(source) && types[destination] != OUTSIDE;
+    }
+
+    /**
+     * Returns the length of the shortest path between two vertices, looked up in the distance
+     * table when it holds the route
+     * @param source: the id of the source vertex
+     * @param destination: the id of the destination vertex
+     * @return the length of the path, or -1 if there is no path
+     */
+    public double getDistance(final int source, final int destination) {
+        if (source < 0 || destination < 0) {
+            return -1;
+        }
+        if (inDistanceTable(source, destination)) {
+            return distanceTable.getDistance(source, destination);
+        }
+        return search(source, destination, true, RoutingProfile.SHORTEST, getWorkspace());
+    }
+
+    /**
+     * Returns the number of vertices in the snapshot
+     */
+    public int getVertexCount() {
+        return vertices.length;
+    }
+
+    /**
+     * Returns the number of directed edges in the snapshot
+     */
+    public int getEdgeCount() {
+        return offsets[vertices.length];
+    }
+
+    /**
+     * Returns the id of a vertex, or -1 if the vertex is not part of the snapshot
+     * @param v the vertex
+     * @return the id of the vertex
+     */
+    public int getId(Vertex v) {
+        if (v == null) {
+            return -1;
+        }
+        Integer id = ids.get(v);
+        return id == null ? -1 : id;
+    }
+
+    public Vertex getVertex(int id) {
+        return vertices[id];
+    }
+
+    public int getFloor(int id) {
+        return floors[id];
+    }
+
+    public VertexType getType(int id) {
+        return VertexType.values()[types[id]];
+    }
+
+    /**
+     * Returns the id of the first outgoing edge of a vertex
+     */
+    public int getFirstEdge(int id) {
+        return offsets[id];
+    }
+
+    /**
+     * Returns the id after the last outgoing edge of a vertex
+     */
+    public int getEndEdge(int id) {
+        return offsets[id + 1];
+    }
+
+    public int getTarget(int edge) {
+        return targets[edge];
+    }
+
+    public float getWeight(int edge) {
+        return weights[edge];
+    }
+
+    /**
+     * Returns the cost of an edge in a routing profile, infinity if the profile forbids it
+     */
+    public float getCost(int edge, RoutingProfile profile) {
+        return costs[profile.ordinal()][edge];
+    }
+
+    /**
+     * Get the shortest path between two vertices with Dijkstra's algorithm
+     * Outside vertices are only used if they are the destination.
+     *
+     * @param source: the id of the source vertex
+     * @param destination: the id of the destination vertex
+     * @return the shortest path and the weight of the path, or an empty path and -1 if there is no path
+     */
+    public Pair<List<Vertex>, Double> getShortestPath(final int source, final int destination) {
+        return getShortestPath(source, destination, RoutingAlgorithm.DIJKSTRA);
+    }
+
+    /**
+     * Get the shortest path between two vertices with the given algorithm
+     * Outside vertices are only used if they are the destination.
+     *
+     * @param source: the id of the source vertex
+     * @param destination: the id of the destination vertex
+     * @param algorithm: the algorithm used to search the path
+     * @return the shortest path and the weight of the path, or an empty path and -1 if there is no path
+     */
+    public Pair<List<Vertex>, Double> getShortestPath(final int source, final int destination, RoutingAlgorithm algorithm) {
+        return getShortestPath(source, destination, algorithm, RoutingProfile.SHORTEST);
+    }
+
+    /**
+     * Get the cheapest path between two vertices with the given algorithm, in the given routing profile.
+     * The contraction hierarchy and the distance table are built for the shortest profile:
+     * the other profiles use A* instead.
+     *
+     * @param source: the id of the source vertex
+     * @param destination: the id of the destination vertex
+     * @param algorithm: the algorithm used to search the path
+     * @param profile: the routing profile deciding the cost of the edges
+     * @return the cheapest path and its cost, or an empty path and -1 if there is no path
+     */
+    public Pair<List<Vertex>, Double> getShortestPath(final int source, final int destination,
+                                                      RoutingAlgorithm algorithm, RoutingProfile profile) {
+        if (source < 0 || destination < 0) {
+            return new Pair<>(new ArrayList<>(), -1.0);
+        }
+        if (profile != RoutingProfile.SHORTEST && (algorithm == RoutingAlgorithm.CONTRACTION_HIERARCHY
+                || algorithm == RoutingAlgorithm.DISTANCE_TABLE)) {
+            algorithm = RoutingAlgorithm.A_STAR;
+        }
+        if (algorithm == RoutingAlgorithm.CONTRACTION_HIERARCHY) {
+            return getContractionHierarchy().getShortestPath(this, source, destination);
+        }
+        if (algorithm == RoutingAlgorithm.DISTANCE_TABLE && inDistanceTable(source, destination)) {
+            return distanceTable.getShortestPath(this, source, destination);
+        }
+        if (algorithm == RoutingAlgorithm.FLOOR_OVERLAY) {
+            Pair<List<Vertex>, Double> path = getFloorOverlay(profile).getShortestPath(source, destination);
+            if (path != null) {
+                return path;
+            }
+            // routes from or to outside vertices
+            algorithm = RoutingAlgorithm.A_STAR;
+        }
+        SearchWorkspace workspace = getWorkspace();
+        if (algorithm == RoutingAlgorithm.BIDIRECTIONAL) {
+            double distance = bidirectionalSearch(source, destination, profile, workspace);
+            if (distance < 0) {
+                return new Pair<>(new ArrayList<>(), -1.0);
+            }
+            // the forward half of the path, followed by the backward half
+            List<Vertex> path = toPath(workspace.previous, workspace.meeting);
+            for (int v = workspace.next[workspace.meeting]; v != -1; v = workspace.next[v]) {
+                path.add(vertices[v]);
+            }
+            return new Pair<>(path, distance);
+        }
+        double distance = search(source, destination, algorithm == RoutingAlgorithm.A_STAR, profile, workspace);
+        if (distance < 0) {
+            return new Pair<>(new ArrayList<>(), -1.0);
+        }
+        return new Pair<>(toPath(workspace.previous, destination), distance);
+    }
+
+    /**
+     * Returns the overlay of the floors in a routing profile, building it on first use
+     * @param profile: the routing profile deciding the cost of the edges
+     */
+    FloorOverlay getFloorOverlay(RoutingProfile profile) {
+        // the overlay has only final fields: a thread reading it from the array sees it built
+        FloorOverlay overlay = floorOverlays[profile.ordinal()];
+        if (overlay == null) {
+            overlay = new FloorOverlay(this, profile);
+            floorOverlays[profile.ordinal()] = overlay;
+        }
+        return overlay;
+    }
+
+    /**
+     * Returns the turns between consecutive edges of the snapshot, building them on first use
+     */
+    TurnTable getTurnTable() {
+        TurnTable table = turnTable;
+        if (table == null) {
+            table = new TurnTable(offsets, targets, xs, ys);
+            turnTable = table;
+        }
+        return table;
+    }
+
+    /**
+     * Get the cheapest path between two vertices when every turn costs a penalty on top of the edges,
+     * so that routes with fewer turns, and fewer instructions, are preferred.
+     * The search is an A* over the edges: its states are the edges the path arrives with,
+     * and going from an edge to the next one costs the next edge plus the penalty if it is a turn.
+     * Outside vertices are only used if they are the destination.
+     *
+     * @param source: the id of the source vertex
+     * @param destination: the id of the destination vertex
+     * @param profile: the routing profile deciding the cost of the edges
+     * @param turnPenalty: the cost of a turn, in the unit of the profile
+     * @return the path and its cost without the penalties, or an empty path and -1 if there is no path
+     */
+    public Pair<List<Vertex>, Double> getTurnAwarePath(final int source, final int destination,
+                                                       RoutingProfile profile, double turnPenalty) {
+        if (source < 0 || destination < 0) {
+            return new Pair<>(new ArrayList<>(), -1.0);
+        }
+        if (source == destination) {
+            List<Vertex> path = new ArrayList<>();
+            path.add(vertices[source]);
+            return new Pair<>(path, 0.0);
+        }
+        TurnTable turns = getTurnTable();
+        SearchWorkspace workspace = edgeWorkspaces.get();
+        workspace.reset();
+        boolean allowOutside = types[destination] == OUTSIDE;
+        float[] cost = costs[profile.ordinal()];
+        IndexedHeap heap = workspace.heap;
+
+        // the first edges leave the source without turning
+        for (int f = offsets[source]; f < offsets[source + 1]; f++) {
+            relaxEdge(workspace, -1, f, cost[f], destination, allowOutside, profile);
+        }
+        int arrival = -1;
+        while (!heap.isEmpty()) {
+            int e = heap.poll();
+            int v = targets[e];
+            if (v == destination) {
+                arrival = e;
+                break;
+            }
+            double currentDist = workspace.distance[e];
+            for (int f = offsets[v]; f < offsets[v + 1]; f++) {
+                double newDist = currentDist + cost[f] + (turns.isTurn(e, f - offsets[v]) ? turnPenalty : 0);
+                relaxEdge(workspace, e, f, newDist, destination, allowOutside, profile);
+            }
+        }
+        if (arrival == -1) {
+            return new Pair<>(new ArrayList<>(), -1.0);
+        }
+
+        // the path is the source followed by the targets of the edges, its cost leaves the penalties out
+        List<Vertex> path = new ArrayList<>();
+        double distance = 0;
+        for (int e = arrival; e != -1; e = workspace.previous[e]) {
+            path.add(vertices[targets[e]]);
+            distance += cost[e];
+        }
+        path.add(vertices[source]);
+        Collections.reverse(path);
+        return new Pair<>(path, distance);
+    }
+
+    /**
+     * Reaches an edge from the previous edge of the path, if it is cheaper than before
+     */
+    private void relaxEdge(SearchWorkspace workspace, int from, int edge, double newDist,
+                           int destination, boolean allowOutside, RoutingProfile profile) {
+        int w = targets[edge];
+        if ((types[w] == OUTSIDE && !allowOutside) || newDist == Double.POSITIVE_INFINITY) {
+            return;
+        }
+        if (newDist < workspace.getDistance(edge)) {
+            boolean reached = workspace.isReached(edge);
+            workspace.setDistance(edge, newDist, from, -1);
+            if (!reached) {
+                workspace.estimate[edge] = estimate(w, destination, profile);
+            }
+            workspace.heap.update(edge, newDist + workspace.estimate[edge]);
+        }
+    }
+
+    /**
+     * Get the cheapest loopless paths between two vertices, in the given routing profile
+     * @param source: the id of the source vertex
+     * @param destination: the id of the destination vertex
+     * @param profile: the routing profile deciding the cost of the edges
+     * @param k: the largest number of paths
+     * @param maxDetour: the largest ratio between the cost of a path and the cost of the cheapest one
+     * @param timeBudgetNanos: the time after which no more paths are searched
+     * @return the paths and their costs sorted by cost, empty if there is no path
+     */
+    public List<Pair<List<Vertex>, Double>> getAlternativePaths(final int source, final int destination, RoutingProfile profile,
+                                                                int k, double maxDetour, long timeBudgetNanos) {
+        if (source < 0 || destination < 0) {
+            return new ArrayList<>();
+        }
+        return AlternativePaths.find(this, source, destination, profile, k, maxDetour, timeBudgetNanos);
+    }
+
+    /**
+     * Returns the search workspace of the calling thread
+     */
+    SearchWorkspace getWorkspace() {
+        return workspaces.get();
+    }
+
+    /**
+     * Searches the shortest path from the source to the destination.
+     * With the heuristic it is A*, the queue is ordered by distance plus the estimate to the destination,
+     * without it is Dijkstra's algorithm.
+     * The path can be read from the previous vertices in the workspace.
+     *
+     * @param source: the id of the source vertex
+     * @param destination: the id of the destination vertex
+     * @param heuristic: whether to use the A* heuristic
+     * @param profile: the routing profile deciding the cost of the edges
+     * @param workspace: the workspace of the search
+     * @return the cost of the path, or -1 if there is no path
+     */
+    private double search(final int source, final int destination, boolean heuristic,
+                          RoutingProfile profile, SearchWorkspace workspace) {
+        workspace.reset();
+        boolean allowOutside = types[destination] == OUTSIDE;
+        float[] cost = costs[profile.ordinal()];
+
+        IndexedHeap heap = workspace.heap;
+        workspace.setDistance(source, 0, -1, -1);
+        workspace.estimate[source] = heuristic ? estimate(source, destination, profile) : 0;
+        heap.update(source, workspace.estimate[source]);
+
+        while (!heap.isEmpty()) {
+            int current = heap.poll();
+            if (current == destination) {
+                break;
+            }
+            double currentDist = workspace.distance[current];
+            for (int e = offsets[current]; e < offsets[current + 1]; e++) {
+                int next = targets[e];
+                // ignore outside vertices
+                if (types[next] == OUTSIDE && !allowOutside) {
+                    continue;
+                }
+                double newDist = currentDist + cost[e];
+                if (newDist < workspace.getDistance(next)) {
+                    boolean reached = workspace.isReached(next);
+                    workspace.setDistance(next, newDist, current, e);
+                    if (heuristic && !reached) {
+                        // first time the vertex is reached
+                        workspace.estimate[next] = estimate(next, destination, profile);
+                    }
+                    heap.update(next, newDist + workspace.estimate[next]);
+                }
+            }
+        }
+
+        // check if destination is reachable
+        double distance = workspace.getDistance(destination);
+        return distance == Double.POSITIVE_INFINITY ? -1 : distance;
+    }
+
+    /**
+     * Get the vertices within a cost of a source, e.g. everything within a 3 minute walk in the fastest
+     * profile, with Dijkstra's algorithm stopping at the radius. Outside vertices are not entered,
+     * they connect every door at no cost.
+     *
+     * @param source: the id of the source vertex
+     * @param radius: the largest cost, in the unit of the profile
+     * @param profile: the routing profile deciding the cost of the edges
+     * @param vertexTypes: the types of the vertices returned, null for every type
+     * @param floor: the floor of the vertices returned, null for every floor
+     * @return the vertices and the cost of their path, the cheapest first
+     */
+    public List<Pair<Vertex, Double>> getVerticesWithin(final int source, double radius, RoutingProfile profile,
+                                                        Set<VertexType> vertexTypes, Integer floor) {
+        List<Pair<Vertex, Double>> result = new ArrayList<>();
+        if (source < 0 || radius < 0) {
+            return result;
+        }
+        float[] cost = costs[profile.ordinal()];
+        SearchWorkspace workspace = getWorkspace();
+        workspace.reset();
+        IndexedHeap heap = workspace.heap;
+        workspace.setDistance(source, 0, -1, -1);
+        heap.update(source, 0);
+
+        while (!heap.isEmpty()) {
+            int current = heap.poll();
+            double currentDist = workspace.distance[current];
+            if ((vertexTypes == null || vertexTypes.contains(vertices[current].getType()))
+                    && (floor == null || floors[current] == floor)) {
+                result.add(new Pair<>(vertices[current], currentDist));
+            }
+            for (int e = offsets[current]; e < offsets[current + 1]; e++) {
+                int next = targets[e];
+                if (types[next] == OUTSIDE) {
+                    continue;
+                }
+                double newDist = currentDist + cost[e];
+                // the search stops at the radius
+                if (newDist <= radius && newDist < workspace.getDistance(next)) {
+                    workspace.setDistance(next, newDist, current, e);
+                    heap.update(next, newDist);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the cheapest paths from a source to the k nearest vertices matching a predicate, e.g. the nearest
+     * elevator, with a single Dijkstra stopping when k of them are settled. The source is never one of them,
+     * e.g. the nearest elevators of an elevator are the other ones. Outside vertices are not entered,
+     * but they can be found.
+     *
+     * @param source: the id of the source vertex
+     * @param profile: the routing profile deciding the cost of the edges
+     * @param target: the predicate of the vertices searched
+     * @param k: the largest number of vertices found
+     * @return the paths to the vertices found and their costs, the cheapest first
+     */
+    public List<Pair<List<Vertex>, Double>> getNearestTargets(final int source, RoutingProfile profile,
+                                                              Predicate<Vertex> target, int k) {
+        List<Pair<List<Vertex>, Double>> result = new ArrayList<>();
+        if (source < 0 || k <= 0) {
+            return result;
+        }
+        float[] cost = costs[profile.ordinal()];
+        SearchWorkspace workspace = getWorkspace();
+        workspace.reset();
+        IndexedHeap heap = workspace.heap;
+        workspace.setDistance(source, 0, -1, -1);
+        heap.update(source, 0);
+
+        while (!heap.isEmpty()) {
+            int current = heap.poll();
+            double currentDist = workspace.distance[current];
+            if (current != source && target.test(vertices[current])) {
+                result.add(new Pair<>(toPath(workspace.previous, current), currentDist));
+                if (result.size() == k) {
+                    break;
+                }
+            }
+            // outside vertices are reached only as targets
+            if (types[current] == OUTSIDE && current != source) {
+                continue;
+            }
+            for (int e = offsets[current]; e < offsets[current + 1]; e++) {
+                int next = targets[e];
+                if (types[next] == OUTSIDE && !target.test(vertices[next])) {
+                    continue;
+                }
+                double newDist = currentDist + cost[e];
+                if (newDist != Double.POSITIVE_INFINITY && newDist < workspace.getDistance(next)) {
+                    workspace.setDistance(next, newDist, current, e);
+                    heap.update(next, newDist);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Searches the cheapest path from the source to the destination with A*, avoiding the vertices
+     * banned in the workspace and some edges of the source, and giving up on paths costing more than a limit.
+     * It finds the spur paths of the alternative routes.
+     *
+     * @param source: the id of the source vertex
+     * @param destination: the id of the destination vertex
+     * @param profile: the routing profile deciding the cost of the edges
+     * @param workspace: the workspace of the search, with the banned vertices
+     * @param bannedTargets: the vertices the path cannot go to directly from the source
+     * @param bannedCount: the number of banned targets
+     * @param limit: the largest cost of the path
+     * @return the cost of the path, or -1 if there is no path within the limit
+     */
+    double restrictedSearch(final int source, final int destination, RoutingProfile profile, SearchWorkspace workspace,
+                            int[] bannedTargets, int bannedCount, double limit) {
+        workspace.reset();
+        boolean allowOutside = types[destination] == OUTSIDE;
+        float[] cost = costs[profile.ordinal()];
+        // tolerate the rounding of the sums of the costs
+        limit += Math.abs(limit) * 1e-9;
+
+        IndexedHeap heap = workspace.heap;
+        workspace.setDistance(source, 0, -1, -1);
+        workspace.estimate[source] = estimate(source, destination, profile);
+        heap.update(source, workspace.estimate[source]);
+
+        while (!heap.isEmpty()) {
+            int current = heap.poll();
+            if (current == destination) {
+                break;
+            }
+            double currentDist = workspace.distance[current];
+            for (int e = offsets[current]; e < offsets[current + 1]; e++) {
+                int next = targets[e];
+                if ((types[next] == OUTSIDE && !allowOutside) || workspace.isBanned(next)) {
+                    continue;
+                }
+                if (current == source && contains(bannedTargets, bannedCount, next)) {
+                    continue;
+                }
+                double newDist = currentDist + cost[e];
+                if (newDist < workspace.getDistance(next)) {
+                    double h = workspace.isReached(next) ? workspace.estimate[next] : estimate(next, destination, profile);
+                    // no path through the vertex can be within the limit
+                    if (newDist + h > limit) {
+                        continue;
+                    }
+                    workspace.setDistance(next, newDist, current, e);
+                    workspace.estimate[next] = h;
+                    heap.update(next, newDist + h);
+                }
+            }
+        }
+
+        double distance = workspace.getDistance(destination);
+        return distance == Double.POSITIVE_INFINITY ? -1 : distance;
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Searches the shortest path with a bidirectional Dijkstra: a forward search from the source
+     * and a backward search from the destination alternate, always advancing the one with the
+     * smaller queue minimum, until the sum of their queue minimums cannot improve the best meeting point.
+     * Edges are undirected, so the backward search walks the outgoing edges of each vertex.
+     * The path goes through the meeting vertex of the workspace.
+     *
+     * @param source: the id of the source vertex
+     * @param destination: the id of the destination vertex
+     * @param profile: the routing profile deciding the cost of the edges
+     * @param workspace: the workspace of the search
+     * @return the cost of the path, or -1 if there is no path
+     */
+    private double bidirectionalSearch(final int source, final int destination,
+                                       RoutingProfile profile, SearchWorkspace workspace) {
+        workspace.reset();
+        workspace.setDistance(source, 0, -1, -1);
+        workspace.setBackward(destination, 0, -1, -1);
+        if (source == destination) {
+            workspace.meeting = source;
+            return 0;
+        }
+        boolean allowOutside = types[destination] == OUTSIDE;
+        float[] cost = costs[profile.ordinal()];
+
+        IndexedHeap forwardHeap = workspace.heap;
+        IndexedHeap backwardHeap = workspace.backwardHeap;
+        forwardHeap.update(source, 0);
+        backwardHeap.update(destination, 0);
+
+        double best = Double.POSITIVE_INFINITY;
+        while (true) {
+            double forwardMin = forwardHeap.peekKey();
+            double backwardMin = backwardHeap.peekKey();
+            // no path through an unsettled vertex can be shorter than the best one
+            if (forwardMin + backwardMin >= best) {
+                break;
+            }
+            boolean isForward = forwardMin <= backwardMin;
+            IndexedHeap heap = isForward ? forwardHeap : backwardHeap;
+            int current = heap.poll();
+            if (!isForward && types[current] == OUTSIDE && !allowOutside) {
+                // edges into outside vertices cannot be used
+                continue;
+            }
+            double currentDist = isForward ? workspace.distance[current] : workspace.backward[current];
+            for (int e = offsets[current]; e < offsets[current + 1]; e++) {
+                int w = targets[e];
+                // ignore outside vertices
+                if (isForward && types[w] == OUTSIDE && !allowOutside) {
+                    continue;
+                }
+                double newDist = currentDist + cost[e];
+                if (newDist < (isForward ? workspace.getDistance(w) : workspace.getBackward(w))) {
+                    if (isForward) {
+                        workspace.setDistance(w, newDist, current, e);
+                    } else {
+                        workspace.setBackward(w, newDist, current, e);
+                    }
+                    heap.update(w, newDist);
+                    double other = isForward ? workspace.getBackward(w) : workspace.getDistance(w);
+                    if (newDist + other < best) {
+                        best = newDist + other;
+                        workspace.meeting = w;
+                    }
+                }
+            }
+        }
+        return workspace.meeting == -1 ? -1 : best;
+    }
+
+    /**
+     * Computes the cheapest paths from a source to every vertex with Dijkstra's algorithm.
+     * Costs are symmetric, so the paths walked backwards are the cheapest paths to the source.
+     * @param source: the id of the source vertex
+     * @param allowOutside: whether outside vertices can be used, otherwise they are ignored
+     * @param profile: the routing profile deciding the cost of the edges
+     * @param distance: filled with the cost of every vertex, infinity if it is not reachable
+     * @param previous: filled with the previous vertex on the path to every vertex, -1 for the source
+     */
+    void computeShortestPathTree(final int source, boolean allowOutside, RoutingProfile profile,
+                                 double[] distance, int[] previous) {
+        float[] cost = costs[profile.ordinal()];
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        Arrays.fill(previous, -1);
+        SearchWorkspace workspace = getWorkspace();
+        workspace.reset();
+        IndexedHeap heap = workspace.heap;
+        distance[source] = 0;
+        heap.update(source, 0);
+        while (!heap.isEmpty()) {
+            int current = heap.poll();
+            for (int e = offsets[current]; e < offsets[current + 1]; e++) {
+                int next = targets[e];
+                if (types[next] == OUTSIDE && !allowOutside) {
+                    continue;
+                }
+                double newDist = distance[current] + cost[e];
+                if (newDist < distance[next]) {
+                    distance[next] = newDist;
+                    previous[next] = current;
+                    heap.update(next, newDist);
+                }
+            }
+        }
+    }
+
+    /**
+     * Repairs a tree of cheapest paths computed on another snapshot of the same base, e.g. before an
+     * edge was closed. Only the vertices whose path crosses an edge that became more expensive are
+     * searched again, from their neighbors outside of the subtree; edges that became cheaper improve
+     * the paths through them. Both snapshots must derive from the same base.
+     * @param source the id of the root of the tree
+     * @param allowOutside whether the tree can enter outside vertices
+     * @param profile the routing profile
+     * @param previousGraph the snapshot the tree was computed on
+     * @param distance the cost of the path of every vertex, repaired in place
+     * @param previous the next vertex towards the root of every vertex, repaired in place
+     */
+    void repairShortestPathTree(final int source, boolean allowOutside, RoutingProfile profile,
+                                RoutingGraph previousGraph, double[] distance, int[] previous) {
+        float[] cost = costs[profile.ordinal()];
+        float[] previousCost = previousGraph.costs[profile.ordinal()];
+        SearchWorkspace workspace = getWorkspace();
+        workspace.reset();
+        workspace.clearBans();
+        IndexedHeap heap = workspace.heap;
+        int[][] changed = {closedEdges, previousGraph.closedEdges};
+
+        // the subtrees hanging from edges that became more expensive lose their paths
+        int[] stack = null;
+        List<Integer> detached = new ArrayList<>();
+        for (int[] edges : changed) {
+            for (int e : edges) {
+                if (cost[e] <= previousCost[e]) {
+                    continue;
+                }
+                int v = getSource(e);
+                int w = targets[e];
+                int top = previous[v] == w ? v : previous[w] == v ? w : -1;
+                if (top == -1 || workspace.isBanned(top)) {
+                    continue;
+                }
+                if (stack == null) {
+                    stack = new int[vertices.length];
+                }
+                int size = 0;
+                stack[size++] = top;
+                workspace.ban(top);
+                while (size > 0) {
+                    int u = stack[--size];
+                    detached.add(u);
+                    for (int f = offsets[u]; f < offsets[u + 1]; f++) {
+                        int child = targets[f];
+                        if (previous[child] == u && !workspace.isBanned(child)) {
+                            workspace.ban(child);
+                            stack[size++] = child;
+                        }
+                    }
+                }
+            }
+        }
+        for (int u : detached) {
+            distance[u] = Double.POSITIVE_INFINITY;
+            previous[u] = -1;
+        }
+        // reattach the detached vertices to their neighbors that kept their paths
+        for (int u : detached) {
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                int w = targets[e];
+                if (!workspace.isBanned(w)) {
+                    improve(u, w, distance[w] + cost[e], distance, previous, heap);
+                }
+            }
+        }
+        // edges that became cheaper can shorten the paths of both their vertices
+        for (int[] edges : changed) {
+            for (int e : edges) {
+                if (cost[e] < previousCost[e]) {
+                    int v = getSource(e);
+                    int w = targets[e];
+                    if (types[v] != OUTSIDE || allowOutside) {
+                        improve(v, w, distance[w] + cost[e], distance, previous, heap);
+                    }
+                    if (types[w] != OUTSIDE || allowOutside) {
+                        improve(w, v, distance[v] + cost[e], distance, previous, heap);
+                    }
+                }
+            }
+        }
+
+        while (!heap.isEmpty()) {
+            int current = heap.poll();
+            for (int e = offsets[current]; e < offsets[current + 1]; e++) {
+                int next = targets[e];
+                if (types[next] == OUTSIDE && !allowOutside) {
+                    continue;
+                }
+                improve(next, current, distance[current] + cost[e], distance, previous, heap);
+            }
+        }
+    }
+
+    private static void improve(int v, int via, double newDist, double[] distance, int[] previous, IndexedHeap heap) {
+        if (newDist < distance[v]) {
+            distance[v] = newDist;
+            previous[v] = via;
+            heap.update(v, newDist);
+        }
+    }
+
+    /**
+     * Returns whether a cheapest path found on another snapshot of the same base is still a cheapest path:
+     * its edges cost the same, and no edge became cheaper
+     * @param previousGraph the snapshot the path was found on
+     * @param path the ids of the vertices of the path
+     * @param profile the routing profile
+     * @return true if the path is still a cheapest path
+     */
+    boolean isStillCheapest(RoutingGraph previousGraph, int[] path, RoutingProfile profile) {
+        if (previousGraph == this) {
+            return true;
+        }
+        if (previousGraph.base != base) {
+            return false;
+        }
+        float[] cost = costs[profile.ordinal()];
+        float[] previousCost = previousGraph.costs[profile.ordinal()];
+        for (int[] edges : new int[][]{closedEdges, previousGraph.closedEdges}) {
+            for (int e : edges) {
+                if (cost[e] < previousCost[e]) {
+                    return false;
+                }
+            }
+        }
+        for (int i = 1; i < path.length; i++) {
+            for (int e = offsets[path[i - 1]]; e < offsets[path[i - 1] + 1]; e++) {
+                if (targets[e] == path[i] && cost[e] != previousCost[e]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the source vertex of an edge
+     */
+    private int getSource(int edge) {
+        // the last vertex whose first edge is not after the edge
+        int low = 0;
+        int high = vertices.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (offsets[middle] <= edge) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Builds the path ending in the given vertex by following the previous pointers
+     * @param previous the previous vertex of every vertex, -1 for the source
+     * @param destination the id of the last vertex of the path
+     * @return the path from the source to the destination
+     */
+    List<Vertex> toPath(int[] previous, int destination) {
+        int length = 0;
+        for (int v = destination; v != -1; v = previous[v]) {
+            length++;
+        }
+        Vertex[] path = new Vertex[length];
+        for (int v = destination; v != -1; v = previous[v]) {
+            path[--length] = vertices[v];
+        }
+        return new ArrayList<>(Arrays.asList(path));
+    }
+}
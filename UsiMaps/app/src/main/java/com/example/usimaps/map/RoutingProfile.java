@@ -0,0 +1,16 @@
+package com.example.usimaps.map;
+
+/**
+ * Routing Profile:
+ * SHORTEST, FASTEST, STEP_FREE, AVOID_OUTDOORS
+ * The profile decides the cost of every edge. The shortest route uses the weight of the edges,
+ * the fastest one their walking time in seconds, counting the time to climb stairs and to wait
+ * for elevators. The step-free route never uses stairs and prefers elevators to ramps: elevators
+ * cost half of their weight. The route avoiding outdoors makes the edges between two doors, walked
+ * outdoors, and the edges of outside vertices more expensive. Routes to indoor destinations never enter
+ * outside vertices, so on a map without edges between doors, such as the USI map, it gives the shortest routes.
+ */
+public enum RoutingProfile
+{
+    SHORTEST, FASTEST, STEP_FREE, AVOID_OUTDOORS
+}
@@ -0,0 +1,160 @@
+package com.example.usimaps.map;
+
+import java.util.Arrays;
+
+/**
+ * SearchWorkspace class
+ * Reusable state of a search over a routing snapshot: the forward and backward distances,
+ * the previous and next vertices and the heaps of every vertex.
+ * A vertex is reached in the current search only if its stamp equals the current generation,
+ * so starting a new search is O(1) instead of clearing every array.
+ * A workspace is not thread-safe, every thread uses its own.
+ */
+final class SearchWorkspace {
+    // forward search: distance from the source, previous vertex and edge used to reach it
+    final double[] distance;
+    final int[] previous;
+    final int[] previousEdge;
+    // backward search: distance to the destination, next vertex and edge used to reach it
+    final double[] backward;
+    final int[] next;
+    final int[] nextEdge;
+    // A* estimate of the distance to the destination
+    final double[] estimate;
+
+    final IndexedHeap heap;
+    final IndexedHeap backwardHeap;
+    // vertex where the forward and the backward searches met, -1 if they did not
+    int meeting = -1;
+
+    private final int[] stamps;
+    private int generation = 0;
+    // vertices a search must not enter, banned if their stamp equals the ban generation
+    private final int[] bans;
+    private int banGeneration = 1;
+
+    /**
+     * Constructor
+     * @param capacity: the number of vertices of the routing snapshot
+     */
+    SearchWorkspace(int capacity) {
+        distance = new double[capacity];
+        previous = new int[capacity];
+        previousEdge = new int[capacity];
+        backward = new double[capacity];
+        next = new int[capacity];
+        nextEdge = new int[capacity];
+        estimate = new double[capacity];
+        heap = new IndexedHeap(capacity);
+        backwardHeap = new IndexedHeap(capacity);
+        stamps = new int[capacity];
+        bans = new int[capacity];
+    }
+
+    /**
+     * Removes every ban
+     */
+    void clearBans() {
+        banGeneration++;
+        if (banGeneration == 0) {
+            Arrays.fill(bans, 0);
+            banGeneration = 1;
+        }
+    }
+
+    /**
+     * Bans a vertex from the searches until the bans are cleared
+     * @param v: the id of the vertex
+     */
+    void ban(int v) {
+        bans[v] = banGeneration;
+    }
+
+    /**
+     * Returns whether a vertex is banned
+     * @param v: the id of the vertex
+     */
+    boolean isBanned(int v) {
+        return bans[v] == banGeneration;
+    }
+
+    /**
+     * Starts a new search: every vertex becomes unreached
+     */
+    void reset() {
+        generation++;
+        if (generation == 0) {
+            // the generation wrapped around, old stamps could match again
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+        heap.clear();
+        backwardHeap.clear();
+        meeting = -1;
+    }
+
+    /**
+     * Returns whether a vertex was reached by the current search, in any direction
+     * @param v: the id of the vertex
+     */
+    boolean isReached(int v) {
+        return stamps[v] == generation;
+    }
+
+    /**
+     * Returns the forward distance of a vertex, infinity if it was not reached
+     * @param v: the id of the vertex
+     */
+    double getDistance(int v) {
+        return stamps[v] == generation ? distance[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the backward distance of a vertex, infinity if it was not reached
+     * @param v: the id of the vertex
+     */
+    double getBackward(int v) {
+        return stamps[v] == generation ? backward[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Sets the forward distance of a vertex
+     * @param v: the id of the vertex
+     * @param d: the distance from the source
+     * @param from: the previous vertex, -1 for the source
+     * @param edge: the edge from the previous vertex, -1 for the source
+     */
+    void setDistance(int v, double d, int from, int edge) {
+        reach(v);
+        distance[v] = d;
+        previous[v] = from;
+        previousEdge[v] = edge;
+    }
+
+    /**
+     * Sets the backward distance of a vertex
+     * @param v: the id of the vertex
+     * @param d: the distance to the destination
+     * @param to: the next vertex, -1 for the destination
+     * @param edge: the edge to the next vertex, -1 for the destination
+     */
+    void setBackward(int v, double d, int to, int edge) {
+        reach(v);
+        backward[v] = d;
+        next[v] = to;
+        nextEdge[v] = edge;
+    }
+
+    private void reach(int v) {
+        if (stamps[v] != generation) {
+            stamps[v] = generation;
+            distance[v] = Double.POSITIVE_INFINITY;
+            backward[v] = Double.POSITIVE_INFINITY;
+            previous[v] = -1;
+            next[v] = -1;
+            previousEdge[v] = -1;
+            nextEdge[v] = -1;
+            estimate[v] = 0;
+        }
+    }
+}
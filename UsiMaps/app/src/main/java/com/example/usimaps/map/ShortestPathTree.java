@@ -0,0 +1,111 @@
+package com.example.usimaps.map;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kotlin.Pair;
+
+/**
+ * ShortestPathTree class
+ * Cheapest paths from every vertex of a routing snapshot to a fixed destination, the root of the tree.
+ * Every vertex points to the next vertex on its path, so the path from any start is found by
+ * following the pointers, in time proportional to the length of the path. It is used to reroute
+ * while the destination stays the same and the start changes.
+ */
+public final class ShortestPathTree {
+    private final RoutingGraph graph;
+    private final int root;
+    private final RoutingProfile profile;
+    // cost of the path from every vertex to the root, infinity if there is none
+    private final double[] distance;
+    // next vertex on the path from every vertex to the root, -1 for the root
+    private final int[] next;
+
+    /**
+     * Computes the tree of the paths to a destination
+     * @param graph: the routing snapshot
+     * @param root: the id of the destination
+     * @param profile: the routing profile deciding the cost of the edges
+     */
+    ShortestPathTree(RoutingGraph graph, int root, RoutingProfile profile) {
+        this.graph = graph;
+        this.root = root;
+        this.profile = profile;
+        this.distance = new double[graph.getVertexCount()];
+        this.next = new int[graph.getVertexCount()];
+        // outside vertices are only used if they are the destination
+        graph.computeShortestPathTree(root, graph.getType(root) == VertexType.OUTSIDE, profile, distance, next);
+    }
+
+    /**
+     * Repairs the tree of another snapshot of the same graph, e.g. after closing an edge:
+     * only the paths changed by the closures are searched again
+     * @param graph: the routing snapshot
+     * @param tree: the tree computed on another snapshot with the same base
+     */
+    ShortestPathTree(RoutingGraph graph, ShortestPathTree tree) {
+        this.graph = graph;
+        this.root = tree.root;
+        this.profile = tree.profile;
+        this.distance = tree.distance.clone();
+        this.next = tree.next.clone();
+        graph.repairShortestPathTree(root, graph.getType(root) == VertexType.OUTSIDE, profile, tree.graph, distance, next);
+    }
+
+    /**
+     * Returns the routing snapshot the tree was computed for
+     */
+    public RoutingGraph getRoutingGraph() {
+        return graph;
+    }
+
+    /**
+     * Returns the id of the destination
+     */
+    public int getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the routing profile of the tree
+     */
+    public RoutingProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Get the cheapest path from a vertex to the destination
+     * @param start: the id of the start vertex
+     * @return the path and its cost, or an empty path and -1 if there is no path
+     */
+    public Pair<List<Vertex>, Double> getPath(final int start) {
+        if (start < 0) {
+            return new Pair<>(new ArrayList<>(), -1.0);
+        }
+        int first = start;
+        double cost = distance[start];
+        if (cost == Double.POSITIVE_INFINITY && graph.getType(start) == VertexType.OUTSIDE) {
+            // the tree never enters an outside vertex, but a path can start from one:
+            // leave it through the cheapest indoor neighbor
+            for (int e = graph.getFirstEdge(start); e < graph.getEndEdge(start); e++) {
+                int w = graph.getTarget(e);
+                double viaW = graph.getCost(e, profile) + distance[w];
+                if (graph.getType(w) != VertexType.OUTSIDE && viaW < cost) {
+                    cost = viaW;
+                    first = w;
+                }
+            }
+        }
+        if (cost == Double.POSITIVE_INFINITY) {
+            return new Pair<>(new ArrayList<>(), -1.0);
+        }
+        List<Vertex> path = new ArrayList<>();
+        if (first != start) {
+            path.add(graph.getVertex(start));
+        }
+        for (int v = first; v != -1; v = next[v]) {
+            path.add(graph.getVertex(v));
+        }
+        return new Pair<>(path, cost);
+    }
+}
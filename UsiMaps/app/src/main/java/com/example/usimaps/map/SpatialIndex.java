@@ -0,0 +1,229 @@
+package com.example.usimaps.map;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SpatialIndex class
+ * Uniform grid over the vertices and the edges of every floor, to find the nearest ones to a position
+ * without scanning the whole graph. A cell covers CELL_DEGREES of latitude and longitude, an edge is
+ * stored in every cell its bounding box overlaps. Outside vertices and their edges have no position
+ * on the map and edges changing floor have no floor, so they are not indexed.
+ */
+final class SpatialIndex {
+    private static final double CELL_DEGREES = 0.0001;
+    private static final double EARTH_RADIUS = 6371e3;
+
+    // grids of the vertices and of the edges of every floor
+    private final Map<Integer, Grid<Vertex>> vertexGrids = new HashMap<>();
+    private final Map<Integer, Grid<Edge>> edgeGrids = new HashMap<>();
+
+    /**
+     * Adds a vertex to the index
+     * @param v: the vertex
+     */
+    void addVertex(Vertex v) {
+        if (v.getType() == VertexType.OUTSIDE) {
+            return;
+        }
+        gridOf(vertexGrids, v.getFloor()).add(cell(v.getLatitude()), cell(v.getLongitude()), v);
+    }
+
+    /**
+     * Adds an edge to the index
+     * @param e: the edge
+     */
+    void addEdge(Edge e) {
+        Vertex a = e.getSource();
+        Vertex b = e.getDestination();
+        if (a.getFloor() != b.getFloor() || a.getType() == VertexType.OUTSIDE || b.getType() == VertexType.OUTSIDE) {
+            return;
+        }
+        int minLat = cell(Math.min(a.getLatitude(), b.getLatitude()));
+        int maxLat = cell(Math.max(a.getLatitude(), b.getLatitude()));
+        int minLon = cell(Math.min(a.getLongitude(), b.getLongitude()));
+        int maxLon = cell(Math.max(a.getLongitude(), b.getLongitude()));
+        Grid<Edge> grid = gridOf(edgeGrids, a.getFloor());
+        for (int i = minLat; i <= maxLat; i++) {
+            for (int j = minLon; j <= maxLon; j++) {
+                grid.add(i, j, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the edge closest to a position on a floor
+     * @param latitude: the latitude of the position
+     * @param longitude: the longitude of the position
+     * @param floor: the floor
+     * @return the closest edge, or null if the floor has no edges
+     */
+    Edge getNearestEdge(double latitude, double longitude, int floor) {
+        Grid<Edge> grid = edgeGrids.get(floor);
+        if (grid == null) {
+            return null;
+        }
+        int row = cell(latitude);
+        int column = cell(longitude);
+        double cellMeters = cellMeters(latitude);
+        LocalProjection plane = new LocalProjection(latitude, longitude);
+        Edge nearest = null;
+        double best = Double.POSITIVE_INFINITY;
+        // visit rings of cells around the position until no farther cell can hold a closer edge
+        int maxRing = grid.getMaxRing(row, column);
+        for (int r = 0; r <= maxRing && (r - 1) * cellMeters < best; r++) {
+            for (long key : ring(row, column, r)) {
+                List<Edge> edges = grid.cells.get(key);
+                if (edges == null) {
+                    continue;
+                }
+                for (Edge e : edges) {
+                    double distance = distanceToSegment(plane, e.getSource(), e.getDestination());
+                    if (distance < best) {
+                        best = distance;
+                        nearest = e;
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Returns the k vertices closest to a position on a floor, sorted by distance
+     * @param latitude: the latitude of the position
+     * @param longitude: the longitude of the position
+     * @param floor: the floor
+     * @param k: the number of vertices
+     * @return the closest vertices, fewer than k if the floor has fewer vertices
+     */
+    List<Vertex> getNearestVertices(final double latitude, final double longitude, int floor, int k) {
+        Grid<Vertex> grid = vertexGrids.get(floor);
+        List<Vertex> found = new ArrayList<>();
+        if (grid == null || k <= 0) {
+            return found;
+        }
+        final Map<Vertex, Double> distances = new HashMap<>();
+        int row = cell(latitude);
+        int column = cell(longitude);
+        double cellMeters = cellMeters(latitude);
+        LocalProjection plane = new LocalProjection(latitude, longitude);
+        int maxRing = grid.getMaxRing(row, column);
+        for (int r = 0; r <= maxRing; r++) {
+            // the k-th closest vertex so far is closer than any vertex outside the visited rings
+            if (found.size() >= k && distances.get(found.get(k - 1)) <= (r - 1) * cellMeters) {
+                break;
+            }
+            for (long key : ring(row, column, r)) {
+                List<Vertex> vertices = grid.cells.get(key);
+                if (vertices == null) {
+                    continue;
+                }
+                for (Vertex v : vertices) {
+                    distances.put(v, distance(plane, v));
+                    found.add(v);
+                }
+            }
+            Collections.sort(found, (a, b) -> Double.compare(distances.get(a), distances.get(b)));
+        }
+        return new ArrayList<>(found.subList(0, Math.min(k, found.size())));
+    }
+
+    /**
+     * Returns the distance in meters between a position and a vertex, on the plane at the position
+     */
+    private static double distance(LocalProjection plane, Vertex v) {
+        return Math.hypot(plane.getX(v.getLongitude()), plane.getY(v.getLatitude()));
+    }
+
+    /**
+     * Returns the distance in meters between a position and a segment, on the plane at the position
+     */
+    private static double distanceToSegment(LocalProjection plane, Vertex a, Vertex b) {
+        // coordinates in meters relative to the position
+        double ax = plane.getX(a.getLongitude());
+        double ay = plane.getY(a.getLatitude());
+        double bx = plane.getX(b.getLongitude());
+        double by = plane.getY(b.getLatitude());
+        double dx = bx - ax;
+        double dy = by - ay;
+        double length = dx * dx + dy * dy;
+        double u = length == 0 ? 0 : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / length));
+        return Math.hypot(ax + u * dx, ay + u * dy);
+    }
+
+    /**
+     * Returns the smallest side of a cell in meters at a latitude
+     */
+    private static double cellMeters(double latitude) {
+        return Math.toRadians(CELL_DEGREES) * EARTH_RADIUS * Math.cos(Math.toRadians(latitude));
+    }
+
+    /**
+     * Returns the keys of the cells at distance r from a cell, the cell itself for r = 0
+     */
+    private static List<Long> ring(int row, int column, int r) {
+        List<Long> keys = new ArrayList<>();
+        for (int i = row - r; i <= row + r; i++) {
+            for (int j = column - r; j <= column + r; j++) {
+                if (Math.abs(i - row) == r || Math.abs(j - column) == r) {
+                    keys.add(key(i, j));
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static int cell(double degrees) {
+        return (int) Math.floor(degrees / CELL_DEGREES);
+    }
+
+    private static long key(int row, int column) {
+        return (long) row << 32 | (column & 0xffffffffL);
+    }
+
+    private static <T> Grid<T> gridOf(Map<Integer, Grid<T>> grids, int floor) {
+        Grid<T> grid = grids.get(floor);
+        if (grid == null) {
+            grid = new Grid<>();
+            grids.put(floor, grid);
+        }
+        return grid;
+    }
+
+    /**
+     * Cells of one floor, with the bounds of the non-empty cells
+     */
+    private static final class Grid<T> {
+        final Map<Long, List<T>> cells = new HashMap<>();
+        private int minRow = Integer.MAX_VALUE;
+        private int maxRow = Integer.MIN_VALUE;
+        private int minColumn = Integer.MAX_VALUE;
+        private int maxColumn = Integer.MIN_VALUE;
+
+        void add(int row, int column, T item) {
+            long key = key(row, column);
+            List<T> items = cells.get(key);
+            if (items == null) {
+                items = new ArrayList<>();
+                cells.put(key, items);
+            }
+            items.add(item);
+            minRow = Math.min(minRow, row);
+            maxRow = Math.max(maxRow, row);
+            minColumn = Math.min(minColumn, column);
+            maxColumn = Math.max(maxColumn, column);
+        }
+
+        /**
+         * Returns the ring of cells around a cell after which every non-empty cell was visited
+         */
+        int getMaxRing(int row, int column) {
+            return Math.max(Math.max(Math.abs(row - minRow), Math.abs(row - maxRow)),
+                    Math.max(Math.abs(column - minColumn), Math.abs(column - maxColumn)));
+        }
+    }
+}
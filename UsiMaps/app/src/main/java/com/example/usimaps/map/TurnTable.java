@@ -0,0 +1,60 @@
+package com.example.usimaps.map;
+
+/**
+ * TurnTable class
+ * Whether going from an edge to the next one is a turn, for every pair of an incoming edge of a vertex
+ * and an outgoing edge of the same vertex. A turn is a bend the instructions describe: its angle,
+ * from getSignedAngle, is more than TURN_THRESHOLD_DEGREES away from going straight.
+ * Changing floor or going through vertices at the same position has no angle and is not a turn.
+ */
+final class TurnTable {
+    // the angle the instructions simplify away, see Graph.toSimpleInstructions
+    static final double TURN_THRESHOLD_DEGREES = 20;
+
+    // the transitions from edge e start at transitionOffsets[e], in the order of the outgoing edges
+    // of the target of e
+    private final int[] transitionOffsets;
+    private final boolean[] turns;
+
+    /**
+     * Computes the turns of a routing snapshot in CSR layout
+     * @param offsets: the first outgoing edge of every vertex
+     * @param targets: the target of every edge
+     * @param xs: the meters east of the origin of the map of the vertices
+     * @param ys: the meters north of the origin of the map of the vertices
+     */
+    TurnTable(int[] offsets, int[] targets, double[] xs, double[] ys) {
+        int edgeCount = targets.length;
+        // the source of every edge
+        int[] sources = new int[edgeCount];
+        for (int v = 0; v + 1 < offsets.length; v++) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                sources[e] = v;
+            }
+        }
+        transitionOffsets = new int[edgeCount + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            int v = targets[e];
+            transitionOffsets[e + 1] = transitionOffsets[e] + offsets[v + 1] - offsets[v];
+        }
+        turns = new boolean[transitionOffsets[edgeCount]];
+        for (int e = 0; e < edgeCount; e++) {
+            int u = sources[e];
+            int v = targets[e];
+            for (int f = offsets[v]; f < offsets[v + 1]; f++) {
+                int w = targets[f];
+                double angle = Math.toDegrees(Graph.getSignedAngle(xs[u], ys[u], xs[v], ys[v], xs[w], ys[w]));
+                turns[transitionOffsets[e] + f - offsets[v]] = Math.abs(Math.abs(angle) - 180) >= TURN_THRESHOLD_DEGREES;
+            }
+        }
+    }
+
+    /**
+     * Returns whether going from an edge to an outgoing edge of its target is a turn
+     * @param edge: the incoming edge
+     * @param index: the index of the outgoing edge among the edges of the target
+     */
+    boolean isTurn(int edge, int index) {
+        return turns[transitionOffsets[edge] + index];
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.usimaps.map;
+
+import java.util.Arrays;
+
+/**
+ * UnionFind class
+ * Disjoint sets of vertex ids, used to find the connected components of a graph while it grows.
+ * Sets are merged by size and paths are halved on every find, so every operation takes
+ * almost constant amortized time.
+ */
+final class UnionFind {
+    private int[] parent = new int[16];
+    private int[] size = new int[16];
+    private int count = 0;
+    private int components = 0;
+
+    /**
+     * Adds a new element in a set of its own
+     * @return the id of the element
+     */
+    int add() {
+        if (count == parent.length) {
+            parent = Arrays.copyOf(parent, count * 2);
+            size = Arrays.copyOf(size, count * 2);
+        }
+        parent[count] = count;
+        size[count] = 1;
+        components++;
+        return count++;
+    }
+
+    /**
+     * Returns the number of elements
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns the number of disjoint sets
+     */
+    int getComponentCount() {
+        return components;
+    }
+
+    /**
+     * Returns the representative of the set of an element
+     * @param x: the element
+     */
+    int find(int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    /**
+     * Returns whether two elements are in the same set
+     */
+    boolean connected(int x, int y) {
+        return find(x) == find(y);
+    }
+
+    /**
+     * Returns the number of elements in the set of an element
+     */
+    int getComponentSize(int x) {
+        return size[find(x)];
+    }
+
+    /**
+     * Points every element to the representative of its set, so that later finds do not change
+     * the sets: a compressed union-find can be read by many threads
+     */
+    void compress() {
+        for (int x = 0; x < count; x++) {
+            parent[x] = find(x);
+        }
+    }
+
+    /**
+     * Merges the sets of two elements
+     */
+    void union(int x, int y) {
+        x = find(x);
+        y = find(y);
+        if (x == y) {
+            return;
+        }
+        if (size[x] < size[y]) {
+            int t = x;
+            x = y;
+            y = t;
+        }
+        parent[y] = x;
+        size[x] += size[y];
+        components--;
+    }
+}
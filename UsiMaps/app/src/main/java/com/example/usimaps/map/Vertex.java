@@ -6,6 +6,9 @@ import java.io.Serializable;
  * Vertex class
  */
 public class Vertex implements Serializable {
+    // the computed id of the first version, keep maps stored by earlier versions of the app loadable
+    private static final long serialVersionUID = -8110690923132723171L;
+
     // Vertex attributes
     private String name;
     private VertexType type;
@@ -110,4 +113,10 @@ public class Vertex implements Serializable {
         Vertex vertex = (Vertex) obj;
         return name.equals(vertex.name);
     }
+
+    @Override
+    public int hashCode() {
+        // vertices are identified by their name, see equals
+        return name.hashCode();
+    }
 }
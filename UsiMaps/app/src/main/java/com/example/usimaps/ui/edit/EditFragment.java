@@ -16,6 +16,7 @@ import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.ImageView;
+import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
@@ -29,6 +30,7 @@ import com.example.usimaps.DatabaseHelper;
 import com.example.usimaps.ImageCaptureManager;
 import com.example.usimaps.databinding.FragmentEditBinding;
 import com.example.usimaps.map.Graph;
+import com.example.usimaps.map.GraphStore;
 import com.example.usimaps.map.Vertex;
 import com.example.usimaps.map.VertexType;
 import com.google.android.material.button.MaterialButton;
@@ -95,13 +97,18 @@ public class EditFragment extends Fragment {
         View root = binding.getRoot();
 
         DatabaseHelper db = new DatabaseHelper(getContext());
-        Graph loadedGraph = db.loadGraph("USI Campus EST");
-        if (loadedGraph != null) {
-            this.graph = loadedGraph;
-            System.out.println("Graph loaded: " + graph.getMapName());
-        } else {
-            this.graph = graph.generateUSIMap();
+        // the map is loaded once and shared with the other fragments, which see its edits
+        GraphStore graphStore = GraphStore.get("USI Campus EST");
+        if (graphStore.getSnapshot() == null) {
+            Graph loadedGraph = db.loadGraph("USI Campus EST");
+            if (loadedGraph != null) {
+                System.out.println("Graph loaded: " + loadedGraph.getMapName());
+            } else {
+                loadedGraph = graph.generateUSIMap();
+            }
+            graphStore.initialize(loadedGraph);
         }
+        this.graph = graphStore.getSnapshot();
 
         requestCameraPermissionLauncher = registerForActivityResult(
                 new ActivityResultContracts.RequestPermission(),
@@ -354,15 +361,25 @@ public class EditFragment extends Fragment {
         VertexType vertexType = VertexType.valueOf(type);
         // new Vertex("Corridor D0", VertexType.CONNECTION, 46.012324, 8.961444, 0);
         Vertex vertex = new Vertex(name, vertexType, this.latitude, this.longitude, floorInt, capturedImagePath);
-        graph.addVertex(vertex);
-
-        for (String edgeName : selectedEdges) {
-            graph.connectVertexToEdgeByName(vertex, edgeName);
-        }
+        List<String> edgeNames = new ArrayList<>(selectedEdges);
+        // edit a copy of the map and publish it, routes computed meanwhile keep the old snapshot
+        graph = GraphStore.get(graph.getMapName()).update(copy -> {
+            copy.addVertex(vertex);
+            for (String edgeName : edgeNames) {
+                copy.connectVertexToEdgeByName(vertex, edgeName);
+            }
+        });
 
-        // Save the graph to the database
+        // Save the graph to the database, the routing data of the old graph is not valid anymore
         DatabaseHelper db = new DatabaseHelper(requireContext());
         db.updateGraph(graph);
+        db.deleteRoutingData(graph.getMapName());
+
+        // warn about locations that cannot be reached from the rest of the map
+        int disconnected = graph.getDisconnectedVertices().size();
+        if (disconnected > 0) {
+            Toast.makeText(requireContext(), disconnected + " locations are not connected to the map", Toast.LENGTH_LONG).show();
+        }
 
         Log.i("Edit Fragment: ", "Form Submitted");
         // Clear the form
@@ -405,7 +422,8 @@ public class EditFragment extends Fragment {
      * @return A list of floor names.
      */
     private List<String> getFloors(){
-        return graph.getFloorNames();
+        // the adapter may change its list, the catalogue of the graph cannot be modified
+        return new ArrayList<>(graph.getFloorNames());
     }
 
     /**
@@ -2,6 +2,7 @@ package com.example.usimaps.ui.navigate;
 
 import android.app.AlertDialog;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
@@ -40,6 +41,12 @@ import com.example.usimaps.databinding.FragmentNavigateBinding;
 
 //import graph class from the map package
 import com.example.usimaps.map.Graph;
+import com.example.usimaps.map.GraphStore;
+import com.example.usimaps.map.RouteCache;
+import com.example.usimaps.map.RoutingAlgorithm;
+import com.example.usimaps.map.RoutingExecutor;
+import com.example.usimaps.map.RoutingGraph;
+import com.example.usimaps.map.RoutingProfile;
 import com.example.usimaps.map.Vertex;
 import com.google.ai.client.generativeai.GenerativeModel;
 import com.google.ai.client.generativeai.java.GenerativeModelFutures;
@@ -85,6 +92,14 @@ public class NavigateFragment extends Fragment {
     private List<String> locationSuggestions;
     // Graph for navigation
     private Graph graph = new Graph();
+    // Routes already computed, kept across fragment instances
+    private static final RouteCache routeCache = new RouteCache(64);
+    // Routes are computed in the background, a new route request replaces the previous one
+    private static final RoutingExecutor routingExecutor = new RoutingExecutor(new Handler(Looper.getMainLooper())::post);
+    private static final String ROUTE_REQUEST = "navigate";
+    private static final String ROUTING_DATA_REQUEST = "routing data";
+    // Routing profile chosen by the user
+    private RoutingProfile routingProfile = RoutingProfile.SHORTEST;
     // Path and instructions
     private List<Vertex> path = new ArrayList<>();
     private List<String> instructions = new ArrayList<>();
@@ -225,13 +240,22 @@ public class NavigateFragment extends Fragment {
         View root = binding.getRoot();
 
         DatabaseHelper db = new DatabaseHelper(requireContext());
-        Graph loadedGraph = db.loadGraph("USI Campus EST");
-        if (loadedGraph != null) {
-            this.graph = loadedGraph;
-            System.out.println("Graph loaded: " + graph.getMapName());
-        } else {
-            this.graph = graph.generateUSIMap();
+        // the map is loaded once and shared with the other fragments, which see its edits
+        GraphStore graphStore = GraphStore.get("USI Campus EST");
+        if (graphStore.getSnapshot() == null) {
+            Graph loadedGraph = db.loadGraph("USI Campus EST");
+            if (loadedGraph != null) {
+                System.out.println("Graph loaded: " + loadedGraph.getMapName());
+            } else {
+                loadedGraph = graph.generateUSIMap();
+            }
+            graphStore.initialize(loadedGraph);
         }
+        this.graph = graphStore.getSnapshot();
+        loadRoutingData();
+        String profile = requireContext().getSharedPreferences(requireContext().getPackageName() + "_preferences", Context.MODE_PRIVATE)
+                .getString("routingProfile", RoutingProfile.SHORTEST.name());
+        routingProfile = RoutingProfile.valueOf(profile);
 
         fromSearchBar = binding.fromSearchBar;
         fromSearchView = binding.fromSearchView;
@@ -279,6 +303,9 @@ public class NavigateFragment extends Fragment {
             } else if (item.getItemId() == R.id.action_voice_input) {
                 checkAndRequestMicrophonePermission();
                 return true;
+            } else if (item.getItemId() == R.id.action_routing_profile) {
+                showRoutingProfileDialog();
+                return true;
             }
             return false;
         });
@@ -304,6 +331,31 @@ public class NavigateFragment extends Fragment {
         checkLocationsSelected(false);
     }
 
+    /**
+     * Use the routing data stored with the graph (contraction hierarchy and distance table),
+     * or build it and store it if the graph changed.
+     * It runs on the routing thread, before the routes: they search the compacted graph, so the
+     * data is the one of its routing snapshot.
+     */
+    private void loadRoutingData() {
+        Graph graph = this.graph.getCompactGraph();
+        String mapName = this.graph.getMapName();
+        Context context = requireContext().getApplicationContext();
+        routingExecutor.submit(ROUTING_DATA_REQUEST, () -> {
+            DatabaseHelper db = new DatabaseHelper(context);
+            RoutingGraph routingGraph = graph.getRoutingGraph();
+            if (!routingGraph.setContractionHierarchy(db.loadHierarchy(mapName))) {
+                db.updateHierarchy(mapName, routingGraph.getContractionHierarchy());
+                Log.i("Navigate Fragment", "Contraction hierarchy built for " + mapName);
+            }
+            if (!routingGraph.setDistanceTable(db.loadDistanceTable(mapName))) {
+                db.updateDistanceTable(mapName, routingGraph.getDistanceTable());
+                Log.i("Navigate Fragment", "Distance table built for " + mapName);
+            }
+            return mapName;
+        }, name -> Log.i("Navigate Fragment", "Routing data loaded for " + name));
+    }
+
     //Speech Recognition
 
     /**
@@ -332,6 +384,23 @@ public class NavigateFragment extends Fragment {
         listeningDialog.show();
     }
 
+    /**
+     * Show the dialog to choose the routing profile, then update the route with the new profile
+     */
+    private void showRoutingProfileDialog() {
+        String[] labels = {"Shortest", "Fastest", "Step-free", "Avoid outdoors"};
+        new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.routing_profile)
+                .setSingleChoiceItems(labels, routingProfile.ordinal(), (dialog, which) -> {
+                    routingProfile = RoutingProfile.values()[which];
+                    requireContext().getSharedPreferences(requireContext().getPackageName() + "_preferences", Context.MODE_PRIVATE)
+                            .edit().putString("routingProfile", routingProfile.name()).apply();
+                    dialog.dismiss();
+                    checkLocationsSelected(false);
+                })
+                .show();
+    }
+
     /**
      * Check and request camera permission
      */
@@ -485,28 +554,54 @@ public class NavigateFragment extends Fragment {
      * @param saveHistory Whether to save the route in the history database
      */
     public void updateRoute(String newStart, String newEnd, boolean saveHistory) {
-        Vertex startVertex = this.graph.getVertexByName(newStart);
-        Vertex endVertex = graph.getVertexByName(newEnd);
-
-        Pair<List<Vertex>, Double> shortestPath = graph.getShortestPath(startVertex, endVertex);
-        List<Vertex> path = shortestPath.getFirst();
-        double weight = shortestPath.getSecond();
-        Pair<List<Vertex>, List<String>> pathInstructions = graph.toSimpleInstructions(path);
-        this.path = pathInstructions.getFirst();
-        this.instructions = pathInstructions.getSecond();
-
-        updatePath();
-
-        // save in the history db
-        if (saveHistory) {
-            DatabaseHelper dbHelper = new DatabaseHelper(getContext());
-            dbHelper.saveHistory(newStart, newEnd);
-        }
+        // the snapshot and the profile of the request, the fields may change while it runs;
+        // routes search the compacted graph, the instructions expand its chains
+        Graph graph = this.graph.getCompactGraph();
+        RoutingProfile profile = this.routingProfile;
+        Context context = requireContext().getApplicationContext();
+
+        routingExecutor.submit(ROUTE_REQUEST, () -> {
+            Pair<List<Vertex>, List<String>> pathInstructions = routeCache.get(graph, newStart, newEnd, profile);
+            if (pathInstructions == null) {
+                Vertex startVertex = graph.getVertexByName(newStart);
+                Vertex endVertex = graph.getVertexByName(newEnd);
+                Pair<List<Vertex>, Double> shortestPath;
+                if (profile == RoutingProfile.SHORTEST && graph.getClosures().isEmpty()) {
+                    // the stored routing data is built for the shortest routes without closures:
+                    // the distance table holds the routes from rooms and doors, the hierarchy the others
+                    RoutingGraph routingGraph = graph.getRoutingGraph();
+                    RoutingAlgorithm algorithm = routingGraph.getDistanceTable().hasSource(routingGraph.getId(startVertex))
+                            ? RoutingAlgorithm.DISTANCE_TABLE : RoutingAlgorithm.CONTRACTION_HIERARCHY;
+                    shortestPath = graph.getShortestPath(startVertex, endVertex, algorithm, profile);
+                } else {
+                    // the tree of the destination is kept, rerouting from a new start only walks the tree
+                    shortestPath = graph.getShortestPathTo(startVertex, endVertex, profile);
+                }
+                pathInstructions = graph.toSimpleInstructions(shortestPath.getFirst(), profile);
+                routeCache.put(graph, newStart, newEnd, profile, shortestPath.getFirst(), pathInstructions);
+            }
+
+            // save in the history db, unless a newer request replaced this one
+            if (saveHistory && !Thread.currentThread().isInterrupted()) {
+                DatabaseHelper dbHelper = new DatabaseHelper(context);
+                dbHelper.saveHistory(newStart, newEnd);
+            }
+            return pathInstructions;
+        }, pathInstructions -> {
+            if (binding == null) {
+                return;
+            }
+            this.path = pathInstructions.getFirst();
+            this.instructions = pathInstructions.getSecond();
+
+            updatePath();
+        });
     }
 
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        routingExecutor.cancel(ROUTE_REQUEST);
 
         if (speechRecognizer != null) {
             speechRecognizer.destroy();
@@ -1,14 +1,39 @@
 package com.example.usimaps;
 
+import com.example.usimaps.map.ContractionHierarchy;
+import com.example.usimaps.map.DistanceTable;
+import com.example.usimaps.map.EdgeClosures;
 import com.example.usimaps.map.Edge;
 import com.example.usimaps.map.Graph;
+import com.example.usimaps.map.GraphBuilder;
+import com.example.usimaps.map.GraphStore;
+import com.example.usimaps.map.RouteCache;
+import com.example.usimaps.map.RoutingAlgorithm;
+import com.example.usimaps.map.RoutingExecutor;
+import com.example.usimaps.map.RoutingProfile;
+import com.example.usimaps.map.ShortestPathTree;
+import com.example.usimaps.map.RoutingGraph;
 import com.example.usimaps.map.Vertex;
 import com.example.usimaps.map.VertexType;
 
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 
 import kotlin.Pair;
 
@@ -122,6 +147,1286 @@ public class GraphTest {
         assertEquals(0, path.size());
     }
 
+    @Test
+    public void testRoutingGraphSnapshot() {
+        Graph graph = new Graph();
+        Vertex vertex1 = new Vertex("vertex1", VertexType.ROOM, 0, 0, 0);
+        Vertex vertex2 = new Vertex("vertex2", VertexType.STAIR, 0, 0, 1);
+        graph.addVertex(vertex1);
+        graph.addVertex(vertex2);
+        graph.addEdge(vertex1, vertex2, 2.5, "edge");
+
+        RoutingGraph routing = graph.getRoutingGraph();
+        assertEquals(2, routing.getVertexCount());
+        // every undirected edge is stored in both directions
+        assertEquals(2, routing.getEdgeCount());
+        // the snapshot is reused until the graph changes
+        assertSame(routing, graph.getRoutingGraph());
+
+        int id2 = routing.getId(vertex2);
+        assertEquals(1, routing.getFloor(id2));
+        assertEquals(VertexType.STAIR, routing.getType(id2));
+        int id1 = routing.getId(vertex1);
+        int edge = routing.getFirstEdge(id1);
+        assertEquals(id2, routing.getTarget(edge));
+        assertEquals(2.5, routing.getWeight(edge), 0.001);
+
+        graph.addVertex(new Vertex("vertex3", VertexType.ROOM, 0, 0, 0));
+        assertNotSame(routing, graph.getRoutingGraph());
+        assertEquals(3, graph.getRoutingGraph().getVertexCount());
+    }
+
+    @Test
+    public void testGetVertexByName() {
+        Graph graph = new Graph();
+        Vertex vertex1 = new Vertex("vertex1", VertexType.ROOM, 0, 0, 0);
+        Vertex vertex2 = new Vertex("vertex2", VertexType.ROOM, 0, 0, 0);
+        graph.addVertex(vertex1);
+        graph.addVertex(vertex2);
+
+        assertSame(vertex2, graph.getVertexByName("vertex2"));
+        assertNull(graph.getVertexByName("vertex3"));
+        // ids are dense and follow the insertion order
+        assertEquals(0, graph.getVertexId(vertex1));
+        assertEquals(1, graph.getVertexId(vertex2));
+        assertSame(vertex1, graph.getVertex(0));
+        assertEquals(-1, graph.getVertexId(new Vertex("vertex3", VertexType.ROOM, 0, 0, 0)));
+
+        // adding a vertex again keeps its id
+        graph.addVertex(vertex1);
+        assertEquals(0, graph.getVertexId(vertex1));
+        assertEquals(2, graph.getVertices().size());
+    }
+
+    @Test
+    public void testDeserializedVertices() {
+        Graph graph = new Graph("test");
+        Vertex vertex1 = new Vertex("vertex1", VertexType.ROOM, 0, 0, 0);
+        Vertex vertex2 = new Vertex("vertex2", VertexType.ROOM, 0, 0, 0);
+        graph.addVertex(vertex1);
+        graph.addVertex(vertex2);
+        graph.addEdge(vertex1, vertex2, 1, "edge");
+
+        Graph copy = Graph.deserialize(Graph.serialize(graph));
+        assertNotNull(copy);
+        // equal vertices have equal hash codes, so the original vertices are found in the copy
+        assertEquals(vertex1.hashCode(), copy.getVertexByName("vertex1").hashCode());
+        assertNotNull(copy.getEdges(vertex1));
+        assertEquals(1, copy.getWeight(vertex1, vertex2), 0.001);
+        assertEquals(1, copy.getShortestPath(vertex1, vertex2).getSecond(), 0.001);
+        assertEquals(vertex2, copy.getVertexByName("vertex2"));
+    }
+
+    @Test
+    public void testLegacyDuplicateNames() throws Exception {
+        // a map saved before vertices had ids, with a corridor whose two ends have the same name
+        Graph graph = new Graph("legacy");
+        Vertex room1 = new Vertex("Room 1", VertexType.ROOM, 46.0100, 8.9600, 0);
+        Vertex start = new Vertex("Corridor", VertexType.CONNECTION, 46.0101, 8.9600, 0);
+        Vertex end = new Vertex("Corridor End", VertexType.CONNECTION, 46.0101, 8.9610, 0);
+        Vertex room2 = new Vertex("Room 2", VertexType.ROOM, 46.0100, 8.9610, 0);
+        for (Vertex v : Arrays.asList(room1, start, end, room2)) {
+            graph.addVertex(v);
+        }
+        graph.addEdge(room1, start, 5, "Door");
+        graph.addEdge(start, end, 80, "Corridor");
+        graph.addEdge(end, room2, 5, "Door");
+        end.setName("Corridor");
+        java.lang.reflect.Field vertexList = Graph.class.getDeclaredField("vertexList");
+        vertexList.setAccessible(true);
+        vertexList.set(graph, null);
+
+        // every vertex and edge is kept, the second corridor end is renamed
+        Graph copy = Graph.deserialize(Graph.serialize(graph));
+        assertNotNull(copy);
+        assertEquals(4, copy.getVertices().size());
+        Vertex renamed = copy.getVertexByName("Corridor 2");
+        assertNotNull(renamed);
+        assertNotNull(copy.getVertexByName("Corridor"));
+        Pair<List<Vertex>, Double> route = copy.getShortestPath(copy.getVertexByName("Room 1"), copy.getVertexByName("Room 2"));
+        assertEquals(90, route.getSecond(), 1e-3);
+        assertEquals(4, route.getFirst().size());
+        for (Vertex v : copy.getVertices()) {
+            assertEquals(v.getName().equals("Corridor") || v.getName().equals("Corridor 2") ? 2 : 1, copy.getEdges(v).size());
+        }
+    }
+
+    /**
+     * Creates a campus with three floors: every floor is a grid of corridors with rooms,
+     * floors are connected by two stairs and an elevator, two doors on the ground floor lead outside.
+     * Corridor weights are randomly longer than the distance between their vertices.
+     */
+    private Graph createCampus() {
+        Graph graph = new Graph("Campus");
+        Random random = new Random(42);
+        int size = 6;
+        Vertex[][][] grid = new Vertex[3][size][size];
+        for (int floor = 0; floor < 3; floor++) {
+            for (int r = 0; r < size; r++) {
+                for (int c = 0; c < size; c++) {
+                    Vertex v = new Vertex("F" + floor + " C" + r + "," + c, VertexType.CONNECTION,
+                            46.0100 + r * 0.00005, 8.9600 + c * 0.00007, floor);
+                    graph.addVertex(v);
+                    grid[floor][r][c] = v;
+                    if (r > 0 && random.nextInt(5) > 0) {
+                        addCorridor(graph, grid[floor][r - 1][c], v, random);
+                    }
+                    if (c > 0 && random.nextInt(5) > 0) {
+                        addCorridor(graph, grid[floor][r][c - 1], v, random);
+                    }
+                    if (random.nextInt(3) == 0) {
+                        Vertex room = new Vertex("F" + floor + " R" + r + "," + c, VertexType.ROOM,
+                                46.0100 + r * 0.00005 + 0.00001, 8.9600 + c * 0.00007, floor);
+                        graph.addVertex(room);
+                        addCorridor(graph, v, room, random);
+                    }
+                }
+            }
+        }
+        int[][] verticals = {{0, 0}, {size - 1, size - 1}, {2, 3}};
+        for (int i = 0; i < verticals.length; i++) {
+            VertexType type = i < 2 ? VertexType.STAIR : VertexType.ELEVATOR;
+            Vertex below = null;
+            for (int floor = 0; floor < 3; floor++) {
+                Vertex corridor = grid[floor][verticals[i][0]][verticals[i][1]];
+                Vertex v = new Vertex(type + " " + i + " F" + floor, type,
+                        corridor.getLatitude(), corridor.getLongitude() + 0.00001, floor);
+                graph.addVertex(v);
+                addCorridor(graph, corridor, v, random);
+                if (below != null) {
+                    graph.addEdge(below, v, type == VertexType.STAIR ? 8 : 15, type + " " + i);
+                }
+                below = v;
+            }
+        }
+        Vertex outside = new Vertex("Outside", VertexType.OUTSIDE, 46.0100, 8.9600, 0);
+        graph.addVertex(outside);
+        for (int i = 0; i < 2; i++) {
+            Vertex corridor = grid[0][i * (size - 1)][size / 2];
+            Vertex door = new Vertex("Door " + i, VertexType.DOOR,
+                    corridor.getLatitude() - 0.00001, corridor.getLongitude(), 0);
+            graph.addVertex(door);
+            addCorridor(graph, corridor, door, random);
+            graph.addEdge(outside, door, 0, "Outside");
+        }
+        return graph;
+    }
+
+    private void addCorridor(Graph graph, Vertex v1, Vertex v2, Random random) {
+        double weight = graph.computeDistance(v1, v2) * (1 + random.nextDouble() / 2);
+        graph.addEdge(v1, v2, weight, "Corridor " + v1.getName());
+    }
+
+    @Test
+    public void testAStarMatchesDijkstra() {
+        Graph graph = createCampus();
+        List<Vertex> vertices = graph.getVertices();
+        for (Vertex source : vertices) {
+            for (Vertex destination : vertices) {
+                Pair<List<Vertex>, Double> dijkstra = graph.getShortestPath(source, destination, RoutingAlgorithm.DIJKSTRA);
+                Pair<List<Vertex>, Double> aStar = graph.getShortestPath(source, destination, RoutingAlgorithm.A_STAR);
+                assertEquals(source.getName() + " -> " + destination.getName(), dijkstra.getSecond(), aStar.getSecond(), 1e-6);
+                if (aStar.getSecond() < 0) {
+                    continue;
+                }
+                assertEquals(source, aStar.getFirst().get(0));
+                assertEquals(destination, aStar.getFirst().get(aStar.getFirst().size() - 1));
+                assertEquals(aStar.getSecond(), pathWeight(graph, aStar.getFirst()), 1e-3);
+            }
+        }
+    }
+
+    @Test
+    public void testBidirectionalMatchesDijkstra() {
+        Graph graph = createCampus();
+        List<Vertex> vertices = graph.getVertices();
+        for (Vertex source : vertices) {
+            for (Vertex destination : vertices) {
+                Pair<List<Vertex>, Double> dijkstra = graph.getShortestPath(source, destination, RoutingAlgorithm.DIJKSTRA);
+                Pair<List<Vertex>, Double> bidirectional = graph.getShortestPath(source, destination, RoutingAlgorithm.BIDIRECTIONAL);
+                assertEquals(source.getName() + " -> " + destination.getName(), dijkstra.getSecond(), bidirectional.getSecond(), 1e-6);
+                if (bidirectional.getSecond() < 0) {
+                    assertTrue(bidirectional.getFirst().isEmpty());
+                    continue;
+                }
+                assertEquals(source, bidirectional.getFirst().get(0));
+                assertEquals(destination, bidirectional.getFirst().get(bidirectional.getFirst().size() - 1));
+                assertEquals(bidirectional.getSecond(), pathWeight(graph, bidirectional.getFirst()), 1e-3);
+            }
+        }
+    }
+
+    @Test
+    public void testContractionHierarchyMatchesDijkstra() {
+        Graph graph = createCampus();
+        ContractionHierarchy hierarchy = graph.getRoutingGraph().getContractionHierarchy();
+        // connections are contracted before the important vertices
+        RoutingGraph routing = graph.getRoutingGraph();
+        int room = routing.getId(graph.getVertexByName("STAIR 0 F1"));
+        int connection = routing.getId(graph.getVertexByName("F1 C0,0"));
+        assertTrue(hierarchy.getRank(connection) < hierarchy.getRank(room));
+
+        List<Vertex> vertices = graph.getVertices();
+        for (Vertex source : vertices) {
+            for (Vertex destination : vertices) {
+                Pair<List<Vertex>, Double> dijkstra = graph.getShortestPath(source, destination, RoutingAlgorithm.DIJKSTRA);
+                Pair<List<Vertex>, Double> contraction = graph.getShortestPath(source, destination, RoutingAlgorithm.CONTRACTION_HIERARCHY);
+                assertEquals(source.getName() + " -> " + destination.getName(), dijkstra.getSecond(), contraction.getSecond(), 1e-6);
+                if (contraction.getSecond() < 0) {
+                    continue;
+                }
+                // shortcuts are unpacked into the original vertices
+                assertEquals(source, contraction.getFirst().get(0));
+                assertEquals(destination, contraction.getFirst().get(contraction.getFirst().size() - 1));
+                assertEquals(contraction.getSecond(), pathWeight(graph, contraction.getFirst()), 1e-3);
+            }
+        }
+    }
+
+    @Test
+    public void testContractionHierarchyPersistence() {
+        Graph graph = createCampus();
+        byte[] data = ContractionHierarchy.serialize(graph.getRoutingGraph().getContractionHierarchy());
+
+        // a copy of the graph accepts the stored hierarchy
+        Graph copy = Graph.deserialize(Graph.serialize(graph));
+        ContractionHierarchy loaded = ContractionHierarchy.deserialize(data);
+        assertTrue(copy.getRoutingGraph().setContractionHierarchy(loaded));
+        assertSame(loaded, copy.getRoutingGraph().getContractionHierarchy());
+        Vertex source = graph.getVertexByName("F0 C0,0");
+        Vertex destination = graph.getVertexByName("F2 C5,5");
+        assertEquals(graph.getShortestPath(source, destination).getSecond(),
+                copy.getShortestPath(source, destination, RoutingAlgorithm.CONTRACTION_HIERARCHY).getSecond(), 1e-6);
+        // so does the compacted graph of a copy, whose routes use the stored hierarchy
+        byte[] compactData = ContractionHierarchy.serialize(graph.getCompactGraph().getRoutingGraph().getContractionHierarchy());
+        assertTrue(copy.getCompactGraph().getRoutingGraph().setContractionHierarchy(ContractionHierarchy.deserialize(compactData)));
+
+        // a changed graph rejects it
+        copy.addVertex(new Vertex("new", VertexType.ROOM, 46.01, 8.96, 0));
+        assertFalse(copy.getRoutingGraph().setContractionHierarchy(loaded));
+    }
+
+    @Test
+    public void testDistanceTableMatchesDijkstra() {
+        Graph graph = createCampus();
+        List<Vertex> vertices = graph.getVertices();
+        for (Vertex source : vertices) {
+            for (Vertex destination : vertices) {
+                Pair<List<Vertex>, Double> dijkstra = graph.getShortestPath(source, destination, RoutingAlgorithm.DIJKSTRA);
+                Pair<List<Vertex>, Double> table = graph.getShortestPath(source, destination, RoutingAlgorithm.DISTANCE_TABLE);
+                String route = source.getName() + " -> " + destination.getName();
+                // the table stores the distances as doubles, like the searches
+                assertEquals(route, dijkstra.getSecond(), table.getSecond(), 1e-9);
+                assertEquals(route, dijkstra.getSecond(), graph.getDistance(source, destination), 1e-9);
+                if (table.getSecond() < 0) {
+                    continue;
+                }
+                assertEquals(source, table.getFirst().get(0));
+                assertEquals(destination, table.getFirst().get(table.getFirst().size() - 1));
+                assertEquals(table.getSecond(), pathWeight(graph, table.getFirst()), 1e-3);
+            }
+        }
+    }
+
+    @Test
+    public void testDistanceTablePersistence() {
+        Graph graph = createCampus();
+        RoutingGraph routing = graph.getRoutingGraph();
+        DistanceTable table = routing.getDistanceTable();
+        // only the searchable locations are sources
+        assertTrue(table.hasSource(routing.getId(graph.getVertexByName("Door 0"))));
+        assertFalse(table.hasSource(routing.getId(graph.getVertexByName("F0 C0,0"))));
+
+        Graph copy = Graph.deserialize(Graph.serialize(graph));
+        DistanceTable loaded = DistanceTable.deserialize(DistanceTable.serialize(table));
+        assertTrue(copy.getRoutingGraph().setDistanceTable(loaded));
+        assertSame(loaded, copy.getRoutingGraph().getDistanceTable());
+
+        copy.addVertex(new Vertex("new", VertexType.ROOM, 46.01, 8.96, 0));
+        assertFalse(copy.getRoutingGraph().setDistanceTable(loaded));
+    }
+
+    @Test
+    public void testSearchDoesNotAllocate() {
+        Graph graph = createCampus();
+        RoutingGraph routing = graph.getRoutingGraph();
+        // connections are not in the distance table, the distance is searched every time
+        int source = routing.getId(graph.getVertexByName("F0 C0,0"));
+        int destination = routing.getId(graph.getVertexByName("F2 C5,5"));
+        double expected = graph.getShortestPath(graph.getVertex(source), graph.getVertex(destination)).getSecond();
+        for (int i = 0; i < 1000; i++) {
+            routing.getDistance(source, destination);
+        }
+
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        // the measurement itself may allocate, subtract it
+        long before = bean.getThreadAllocatedBytes(thread);
+        long overhead = bean.getThreadAllocatedBytes(thread) - before;
+        before = bean.getThreadAllocatedBytes(thread);
+        double distance = 0;
+        for (int i = 0; i < 100; i++) {
+            distance = routing.getDistance(source, destination);
+        }
+        long allocated = bean.getThreadAllocatedBytes(thread) - before - overhead;
+        assertEquals(expected, distance, 1e-6);
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    public void testRouteCache() {
+        Graph graph = createCampus();
+        long version = graph.getVersion();
+        RouteCache cache = new RouteCache(2);
+        Vertex source = graph.getVertexByName("Door 0");
+        Vertex destination = graph.getVertexByName("Door 1");
+        Pair<List<Vertex>, List<String>> route = graph.toSimpleInstructions(graph.getShortestPath(source, destination).getFirst());
+        cache.put(graph, "Door 0", "Door 1", RoutingProfile.SHORTEST, route);
+        assertEquals(route.getFirst(), cache.get(graph, "Door 0", "Door 1", RoutingProfile.SHORTEST).getFirst());
+        assertNull(cache.get(graph, "Door 1", "Door 0", RoutingProfile.SHORTEST));
+        assertNull(cache.get(graph, "Door 0", "Door 1", RoutingProfile.STEP_FREE));
+
+        // the least recently used route is evicted
+        cache.put(graph, "Door 1", "Door 0", RoutingProfile.SHORTEST, route);
+        cache.get(graph, "Door 0", "Door 1", RoutingProfile.SHORTEST);
+        cache.put(graph, "Door 0", "Outside", RoutingProfile.SHORTEST, route);
+        assertEquals(2, cache.size());
+        assertNull(cache.get(graph, "Door 1", "Door 0", RoutingProfile.SHORTEST));
+        assertNotNull(cache.get(graph, "Door 0", "Door 1", RoutingProfile.SHORTEST));
+
+        // a change to the graph invalidates the cached routes, also after a reload
+        graph.addVertex(new Vertex("new", VertexType.ROOM, 46.01, 8.96, 0));
+        assertTrue(graph.getVersion() > version);
+        assertNull(cache.get(graph, "Door 0", "Door 1", RoutingProfile.SHORTEST));
+        Graph copy = Graph.deserialize(Graph.serialize(graph));
+        assertEquals(graph.getVersion(), copy.getVersion());
+    }
+
+    @Test
+    public void testComponents() {
+        Graph graph = createCampus();
+        // an island connected to the campus only through the outside
+        Vertex island = new Vertex("Island", VertexType.ROOM, 46.0105, 8.9605, 0);
+        Vertex islandDoor = new Vertex("Island Door", VertexType.DOOR, 46.0105, 8.9606, 0);
+        graph.addVertex(island);
+        graph.addVertex(islandDoor);
+        graph.addEdge(island, islandDoor, 5, "Island");
+        graph.addEdge(graph.getVertexByName("Outside"), islandDoor, 0, "Outside");
+        Vertex alone = new Vertex("Alone", VertexType.ROOM, 46.0106, 8.9606, 1);
+        graph.addVertex(alone);
+
+        assertFalse(graph.isReachable(graph.getVertexByName("Door 0"), island));
+        assertTrue(graph.isReachable(graph.getVertexByName("Door 0"), graph.getVertexByName("Outside")));
+        assertEquals(-1.0, graph.getShortestPath(island, graph.getVertexByName("F1 C0,0")).getSecond(), 0);
+        List<Vertex> disconnected = graph.getDisconnectedVertices();
+        assertTrue(disconnected.contains(alone));
+        assertFalse(disconnected.contains(island));
+
+        // reachability matches the searches of the routing snapshot, outside vertices included
+        RoutingGraph routing = graph.getRoutingGraph();
+        for (Vertex source : graph.getVertices()) {
+            for (Vertex destination : graph.getVertices()) {
+                double weight = routing.getShortestPath(routing.getId(source), routing.getId(destination)).getSecond();
+                assertEquals(source.getName() + " -> " + destination.getName(), weight >= 0, graph.isReachable(source, destination));
+            }
+        }
+    }
+
+    @Test
+    public void testRoutingProfiles() {
+        Graph graph = createCampus();
+        List<Vertex> vertices = graph.getVertices();
+        for (RoutingProfile profile : RoutingProfile.values()) {
+            for (Vertex source : vertices) {
+                for (Vertex destination : vertices) {
+                    double dijkstra = graph.getShortestPath(source, destination, RoutingAlgorithm.DIJKSTRA, profile).getSecond();
+                    String route = profile + " " + source.getName() + " -> " + destination.getName();
+                    // the A* bound and the bidirectional search hold for the costs of every profile
+                    assertEquals(route, dijkstra, graph.getShortestPath(source, destination, RoutingAlgorithm.A_STAR, profile).getSecond(), 1e-6);
+                    assertEquals(route, dijkstra, graph.getShortestPath(source, destination, RoutingAlgorithm.BIDIRECTIONAL, profile).getSecond(), 1e-6);
+                }
+            }
+        }
+
+        // the step-free route takes the elevator
+        Vertex source = graph.getVertexByName("F0 C0,0");
+        Vertex destination = graph.getVertexByName("F2 C0,0");
+        List<Vertex> shortest = graph.getShortestPath(source, destination, RoutingAlgorithm.DIJKSTRA, RoutingProfile.SHORTEST).getFirst();
+        List<Vertex> stepFree = graph.getShortestPath(source, destination, RoutingAlgorithm.DIJKSTRA, RoutingProfile.STEP_FREE).getFirst();
+        assertTrue(shortest.contains(graph.getVertexByName("STAIR 0 F1")));
+        for (Vertex v : stepFree) {
+            assertTrue(v.getType() != VertexType.STAIR);
+        }
+        assertTrue(stepFree.contains(graph.getVertexByName("ELEVATOR 2 F1")));
+        // the fastest route is measured in seconds
+        double seconds = graph.getShortestPath(source, destination, RoutingAlgorithm.A_STAR, RoutingProfile.FASTEST).getSecond();
+        // climbing two floors of stairs, plus walking to and from the stairs
+        double walk = 2 * graph.computeDistance(source, graph.getVertexByName("STAIR 0 F0"));
+        assertEquals(2 * 15 + walk / 1.3, seconds, 0.5 * walk / 1.3);
+    }
+
+    @Test
+    public void testAccessibilityProfiles() {
+        // a ramp and an elevator between two floors, the ramp is shorter
+        Graph graph = new Graph("Ramp");
+        Vertex a = new Vertex("A", VertexType.CONNECTION, 46.0100, 8.9600, 0);
+        Vertex b = new Vertex("B", VertexType.CONNECTION, 46.0100, 8.9600, 1);
+        Vertex e0 = new Vertex("E0", VertexType.ELEVATOR, 46.0100, 8.9600, 0);
+        Vertex e1 = new Vertex("E1", VertexType.ELEVATOR, 46.0100, 8.9600, 1);
+        for (Vertex v : Arrays.asList(a, b, e0, e1)) {
+            graph.addVertex(v);
+        }
+        graph.addEdge(a, b, 10, "Ramp");
+        graph.addEdge(a, e0, 1, "Hall");
+        graph.addEdge(e0, e1, 14, "Elevator");
+        graph.addEdge(e1, b, 1, "Hall");
+        assertEquals(Arrays.asList("A", "B"), names(graph.getShortestPath(a, b, RoutingAlgorithm.DIJKSTRA, RoutingProfile.SHORTEST).getFirst()));
+        // the step-free route prefers the elevator
+        Pair<List<Vertex>, Double> stepFree = graph.getShortestPath(a, b, RoutingAlgorithm.A_STAR, RoutingProfile.STEP_FREE);
+        assertEquals(Arrays.asList("A", "E0", "E1", "B"), names(stepFree.getFirst()));
+        assertEquals(9, stepFree.getSecond(), 1e-3);
+
+        // two buildings joined outdoors between their doors, and by a longer covered bridge
+        Graph campus = new Graph("Buildings");
+        Vertex r1 = new Vertex("R1", VertexType.ROOM, 46.0100, 8.9600, 0);
+        Vertex d1 = new Vertex("D1", VertexType.DOOR, 46.0100, 8.9601, 0);
+        Vertex d2 = new Vertex("D2", VertexType.DOOR, 46.0100, 8.9602, 0);
+        Vertex r2 = new Vertex("R2", VertexType.ROOM, 46.0100, 8.9603, 0);
+        for (Vertex v : Arrays.asList(r1, d1, d2, r2)) {
+            campus.addVertex(v);
+        }
+        campus.addEdge(r1, d1, 5, "Hall");
+        campus.addEdge(d1, d2, 10, "Path");
+        campus.addEdge(d2, r2, 5, "Hall");
+        campus.addEdge(r1, r2, 30, "Bridge");
+        assertEquals(Arrays.asList("R1", "D1", "D2", "R2"), names(campus.getShortestPath(r1, r2, RoutingAlgorithm.DIJKSTRA, RoutingProfile.SHORTEST).getFirst()));
+        assertEquals(Arrays.asList("R1", "R2"), names(campus.getShortestPath(r1, r2, RoutingAlgorithm.DIJKSTRA, RoutingProfile.AVOID_OUTDOORS).getFirst()));
+    }
+
+    @Test
+    public void testShortestPathTree() {
+        Graph graph = createCampus();
+        List<Vertex> vertices = graph.getVertices();
+        for (RoutingProfile profile : new RoutingProfile[]{RoutingProfile.SHORTEST, RoutingProfile.STEP_FREE}) {
+            for (Vertex destination : vertices) {
+                for (Vertex start : vertices) {
+                    Pair<List<Vertex>, Double> dijkstra = graph.getShortestPath(start, destination, RoutingAlgorithm.DIJKSTRA, profile);
+                    Pair<List<Vertex>, Double> tree = graph.getShortestPathTo(start, destination, profile);
+                    assertEquals(profile + " " + start.getName() + " -> " + destination.getName(),
+                            dijkstra.getSecond(), tree.getSecond(), 1e-6);
+                    if (tree.getSecond() >= 0 && profile == RoutingProfile.SHORTEST) {
+                        assertEquals(start, tree.getFirst().get(0));
+                        assertEquals(destination, tree.getFirst().get(tree.getFirst().size() - 1));
+                        assertEquals(tree.getSecond(), pathWeight(graph, tree.getFirst()), 1e-3);
+                    }
+                }
+            }
+        }
+
+        // the tree is kept for the same destination and computed again after a change
+        Vertex destination = graph.getVertexByName("Door 1");
+        ShortestPathTree tree = graph.getShortestPathTree(destination, RoutingProfile.SHORTEST);
+        assertSame(tree, graph.getShortestPathTree(destination, RoutingProfile.SHORTEST));
+        assertNotSame(tree, graph.getShortestPathTree(destination, RoutingProfile.FASTEST));
+        graph.addVertex(new Vertex("new", VertexType.ROOM, 46.01, 8.96, 0));
+        assertNotSame(tree, graph.getShortestPathTree(destination, RoutingProfile.SHORTEST));
+    }
+
+    @Test
+    public void testSpatialIndex() {
+        Graph graph = createCampus();
+        Random random = new Random(3);
+        for (int i = 0; i < 200; i++) {
+            double latitude = 46.0098 + random.nextDouble() * 0.0004;
+            double longitude = 8.9598 + random.nextDouble() * 0.0006;
+            int floor = random.nextInt(3);
+
+            // brute force over the edges on the floor
+            double best = Double.POSITIVE_INFINITY;
+            for (Edge e : graph.getEdges()) {
+                if (e.getSource().getFloor() == floor && e.getDestination().getFloor() == floor
+                        && e.getSource().getType() != VertexType.OUTSIDE && e.getDestination().getType() != VertexType.OUTSIDE) {
+                    best = Math.min(best, distanceToEdge(graph, latitude, longitude, e));
+                }
+            }
+            Edge nearest = graph.getNearestEdge(latitude, longitude, floor);
+            assertEquals(best, distanceToEdge(graph, latitude, longitude, nearest), 1e-6);
+
+            List<Vertex> vertices = graph.getNearestVertices(latitude, longitude, floor, 3);
+            assertEquals(3, vertices.size());
+            double third = distance(graph, latitude, longitude, vertices.get(2).getLatitude(), vertices.get(2).getLongitude());
+            for (Vertex v : graph.getVertices()) {
+                if (v.getFloor() == floor && v.getType() != VertexType.OUTSIDE && !vertices.contains(v)) {
+                    assertTrue(distance(graph, latitude, longitude, v.getLatitude(), v.getLongitude()) >= third);
+                }
+            }
+        }
+        assertNull(graph.getNearestEdge(46.01, 8.96, 5));
+    }
+
+    private double distance(Graph graph, double lat1, double lon1, double lat2, double lon2) {
+        return graph.computeDistance(new Vertex("a", VertexType.ROOM, lat1, lon1, 0), new Vertex("b", VertexType.ROOM, lat2, lon2, 0));
+    }
+
+    private double distanceToEdge(Graph graph, double latitude, double longitude, Edge e) {
+        // the closest point on a short segment, sampled
+        double best = Double.POSITIVE_INFINITY;
+        Vertex a = e.getSource();
+        Vertex b = e.getDestination();
+        for (int i = 0; i <= 10000; i++) {
+            double u = i / 10000.0;
+            best = Math.min(best, distance(graph, latitude, longitude,
+                    a.getLatitude() + u * (b.getLatitude() - a.getLatitude()),
+                    a.getLongitude() + u * (b.getLongitude() - a.getLongitude())));
+        }
+        return best;
+    }
+
+    @Test
+    public void testEdgeCatalogue() {
+        Graph graph = createCampus();
+        Set<Edge> edges = graph.getEdges();
+        assertSame(edges, graph.getEdges());
+        assertSame(graph.getSearchableNames(), graph.getSearchableNames());
+        assertTrue(graph.getEdgeNames().contains("STAIR 0"));
+        // one direction of the two stair edges
+        assertEquals(2, graph.getEdgesByName("STAIR 0").size());
+        assertTrue(graph.getEdgesByName("missing").isEmpty());
+
+        // connecting a vertex by edge name splits the closest edge with that name
+        Vertex room = new Vertex("New Room", VertexType.ROOM, 46.01001, 8.96004, 0);
+        graph.connectVertexToEdgeByName(room, "Corridor F0 C0,0");
+        assertTrue(graph.getEdgeNames().contains("Corridor F0 C0,0-New Room"));
+        assertNotSame(edges, graph.getEdges());
+        assertEquals(edges.size() + 6, graph.getEdges().size());
+        assertTrue(graph.getSearchableNames().contains("New Room"));
+
+        // the indexes are rebuilt after a reload
+        Graph copy = Graph.deserialize(Graph.serialize(graph));
+        assertEquals(graph.getEdgeNames(), copy.getEdgeNames());
+        assertEquals(graph.getEdgesByName("Corridor F0 C0,0").size(), copy.getEdgesByName("Corridor F0 C0,0").size());
+    }
+
+    @Test
+    public void testLocalProjection() {
+        Graph graph = new Graph("Plane");
+        double metersPerLatitude = Math.toRadians(1) * 6371000;
+        double metersPerLongitude = metersPerLatitude * Math.cos(Math.toRadians(46.0));
+        Vertex a = new Vertex("A", VertexType.CONNECTION, 46.0, 8.96, 0);
+        Vertex b = new Vertex("B", VertexType.CONNECTION, 46.0, 8.96 + 20 / metersPerLongitude, 0);
+        // 10 meters east and 10 meters north of b
+        Vertex c = new Vertex("C", VertexType.CONNECTION, 46.0 + 10 / metersPerLatitude, 8.96 + 30 / metersPerLongitude, 1);
+        graph.addVertex(a);
+        graph.addVertex(b);
+        graph.addVertex(c);
+
+        assertEquals(20, graph.computeDistance(a, b), 1e-3);
+        assertEquals(Math.sqrt(200), graph.computeDistance(b, c), 1e-3);
+        // vertices that are not in the graph are projected on the same plane
+        Vertex d = new Vertex("D", VertexType.ROOM, b.getLatitude(), b.getLongitude(), 0);
+        assertEquals(0, graph.computeDistance(b, d), 1e-9);
+
+        // the angle is measured in meters, not in degrees: a 45 degrees left turn at b
+        assertEquals(135, Math.toDegrees(graph.getAngle(a, b, c)), 1e-6);
+        assertEquals(135, Math.toDegrees(graph.getSignedAngle(a, b, c)), 1e-6);
+        assertEquals(-135, Math.toDegrees(graph.getSignedAngle(c, b, a)), 1e-6);
+
+        // the positions are computed again after a reload
+        Graph copy = Graph.deserialize(Graph.serialize(graph));
+        assertEquals(graph.computeDistance(a, c), copy.computeDistance(copy.getVertexByName("A"), copy.getVertexByName("C")), 1e-9);
+    }
+
+    @Test
+    public void testGraphBuilder() {
+        Vertex start = new Vertex("Start", VertexType.CONNECTION, 46.0100, 8.9600, 0);
+        Vertex end = new Vertex("End", VertexType.CONNECTION, 46.0100, 8.9610, 0);
+        Vertex far = new Vertex("Far", VertexType.ROOM, 46.0101, 8.9608, 0);
+        Vertex near = new Vertex("Near", VertexType.ROOM, 46.0101, 8.9602, 0);
+        Vertex middle = new Vertex("Middle", VertexType.DOOR, 46.0099, 8.9605, 0);
+        Vertex beyond = new Vertex("Beyond", VertexType.ROOM, 46.0100, 8.9620, 0);
+        Graph graph = new GraphBuilder("Builder")
+                .addVertex(start)
+                .addVertex(end)
+                .addEdge(start, end, 100, "Corridor")
+                .attach(far, "Corridor")
+                .attach(near, "Corridor")
+                .attach(middle, "Corridor")
+                .attach(beyond, "Corridor")
+                .attach(new Vertex("Lost", VertexType.ROOM, 46.0100, 8.9600, 0), "Missing")
+                .build();
+
+        // the corridor is replaced by its pieces, sorted along it
+        assertEquals(-1, graph.getWeight(start, end), 0);
+        List<Edge> pieces = graph.getEdgesByName("Corridor");
+        assertEquals(4, pieces.size());
+        double total = 0;
+        for (Edge e : pieces) {
+            total += e.getWeight();
+        }
+        assertEquals(100, total, 1e-9);
+        Pair<List<Vertex>, Double> path = graph.getShortestPath(start, graph.getVertexByName("Corridor-Far"));
+        assertEquals(Arrays.asList("Start", "Corridor-Near", "Corridor-Middle", "Corridor-Far"), names(path.getFirst()));
+        assertEquals(80, path.getSecond(), 1e-6);
+
+        // a vertex beyond the end of the corridor is attached to the end
+        assertEquals(graph.computeDistance(beyond, end), graph.getWeight(end, beyond), 1e-9);
+        // a vertex attached to a missing edge is added alone
+        assertEquals(1, graph.getDisconnectedVertices().size());
+
+        // the map of the campus is built with the builder
+        Graph usi = new Graph().generateUSIMap();
+        assertTrue(usi.getShortestPath(usi.getVertexByName("D0.04"), usi.getVertexByName("D1.15")).getSecond() > 0);
+        assertEquals(6, usi.getEdgesByName("Corridor D0").size());
+    }
+
+    @Test
+    public void testEdgeClosures() {
+        Graph graph = createCampus();
+        long version = graph.getVersion();
+        Vertex source = graph.getVertexByName("F0 C0,0");
+        Vertex destination = graph.getVertexByName("F2 C0,0");
+        Vertex stair = graph.getVertexByName("STAIR 0 F1");
+        List<Vertex> path = graph.getShortestPath(source, destination).getFirst();
+        assertTrue(path.contains(stair));
+        // a tree and cached routes before the closures
+        graph.getShortestPathTree(destination, RoutingProfile.SHORTEST);
+        RouteCache cache = new RouteCache(4);
+        cache.put(graph, "F0 C0,0", "F2 C0,0", RoutingProfile.SHORTEST, path, graph.toSimpleInstructions(path));
+        Vertex far = graph.getVertexByName("F2 C5,5");
+        Vertex near = graph.getVertexByName("F2 C5,4");
+        List<Vertex> other = graph.getShortestPath(far, near).getFirst();
+        cache.put(graph, "F2 C5,5", "F2 C5,4", RoutingProfile.SHORTEST, other, graph.toSimpleInstructions(other));
+
+        // close a stairwell and make some corridors slower
+        EdgeClosures closures = new EdgeClosures();
+        closures.close("STAIR 0");
+        closures.setFactor("Corridor F1 C2,2", 4);
+        graph.setClosures(closures);
+        // the route through the stairwell is dropped, the other one is kept
+        assertNull(cache.get(graph, "F0 C0,0", "F2 C0,0", RoutingProfile.SHORTEST));
+        assertNotNull(cache.get(graph, "F2 C5,5", "F2 C5,4", RoutingProfile.SHORTEST));
+
+        // and one corridor faster: any route can become cheaper
+        Vertex faster = graph.getVertexByName("F0 C3,3");
+        Vertex corridor = null;
+        for (Edge e : graph.getEdges(faster)) {
+            if (e.getDestination().getType() == VertexType.CONNECTION) {
+                corridor = e.getDestination();
+            }
+        }
+        closures.setFactor(faster, corridor, 0.5);
+        graph.setClosures(closures);
+        Map<String, Double> factors = new HashMap<>();
+        factors.put("STAIR 0", Double.POSITIVE_INFINITY);
+        factors.put("Corridor F1 C2,2", 4.0);
+        Graph reference = withClosures(createCampus(), factors, faster, corridor, 0.5);
+
+        // the graph does not change
+        assertEquals(version, graph.getVersion());
+        assertEquals(8, graph.getWeight(graph.getVertexByName("STAIR 0 F0"), stair), 1e-9);
+        assertFalse(graph.getShortestPath(source, destination).getFirst().contains(stair));
+        assertClosedRoutes(graph, reference, destination);
+        assertNull(cache.get(graph, "F2 C5,5", "F2 C5,4", RoutingProfile.SHORTEST));
+
+        // a copy keeps the closures, opening them restores the routes
+        assertClosedRoutes(graph.copy(), reference, destination);
+        closures.open("STAIR 0");
+        closures.open("Corridor F1 C2,2");
+        assertFalse(closures.isEmpty());
+        closures.open(corridor, faster);
+        assertTrue(closures.isEmpty());
+        graph.setClosures(closures);
+        assertTrue(graph.getClosures().isEmpty());
+        assertClosedRoutes(graph, createCampus(), destination);
+    }
+
+    /**
+     * Asserts that the routes of a graph with closures are those of a graph with the closures applied to its edges
+     */
+    private void assertClosedRoutes(Graph graph, Graph reference, Vertex destination) {
+        List<Vertex> vertices = graph.getVertices();
+        for (RoutingProfile profile : RoutingProfile.values()) {
+            for (Vertex source : vertices) {
+                // the tree of the destination is repaired
+                String route = profile + " " + source.getName() + " -> " + destination.getName();
+                double expected = reference.getShortestPath(source, destination, RoutingAlgorithm.DIJKSTRA, profile).getSecond();
+                assertEquals(route, expected, graph.getShortestPathTo(source, destination, profile).getSecond(), 1e-3);
+            }
+            for (int i = 0; i < vertices.size(); i += 7) {
+                for (int j = 0; j < vertices.size(); j += 3) {
+                    Vertex source = vertices.get(i);
+                    Vertex target = vertices.get(j);
+                    String route = profile + " " + source.getName() + " -> " + target.getName();
+                    double expected = reference.getShortestPath(source, target, RoutingAlgorithm.DIJKSTRA, profile).getSecond();
+                    for (RoutingAlgorithm algorithm : RoutingAlgorithm.values()) {
+                        assertEquals(route + " " + algorithm, expected, graph.getShortestPath(source, target, algorithm, profile).getSecond(), 1e-3);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of a graph with the weights of some edges multiplied, without the edges multiplied by infinity
+     */
+    private Graph withClosures(Graph graph, Map<String, Double> factors, Vertex v1, Vertex v2, double factor) {
+        Graph copy = new Graph(graph.getMapName());
+        for (Vertex v : graph.getVertices()) {
+            copy.addVertex(v);
+        }
+        for (Vertex v : graph.getVertices()) {
+            for (Edge e : graph.getEdges(v)) {
+                Vertex w = e.getDestination();
+                if (graph.getVertexId(v) < graph.getVertexId(w)) {
+                    double weight = e.getWeight();
+                    if (factors.containsKey(e.getName())) {
+                        weight *= factors.get(e.getName());
+                    }
+                    if ((v.equals(v1) && w.equals(v2)) || (v.equals(v2) && w.equals(v1))) {
+                        weight *= factor;
+                    }
+                    if (weight != Double.POSITIVE_INFINITY) {
+                        copy.addEdge(v, w, weight, e.getName());
+                    }
+                }
+            }
+        }
+        return copy;
+    }
+
+    @Test
+    public void testCompactGraph() {
+        Graph graph = new Graph("Chain");
+        Vertex a = new Vertex("A", VertexType.ROOM, 46.0100, 8.9600, 0);
+        Vertex c1 = new Vertex("C1", VertexType.CONNECTION, 46.0101, 8.9600, 0);
+        Vertex c2 = new Vertex("C2", VertexType.CONNECTION, 46.0101, 8.9602, 0);
+        Vertex c3 = new Vertex("C3", VertexType.CONNECTION, 46.0102, 8.9602, 0);
+        Vertex b = new Vertex("B", VertexType.ROOM, 46.0103, 8.9602, 0);
+        Vertex c4 = new Vertex("C4", VertexType.CONNECTION, 46.0101, 8.9604, 0);
+        Vertex c = new Vertex("C", VertexType.ROOM, 46.0100, 8.9604, 0);
+        for (Vertex v : Arrays.asList(a, c1, c2, c3, b, c4, c)) {
+            graph.addVertex(v);
+        }
+        graph.addEdge(a, c1, graph.computeDistance(a, c1), "Corridor");
+        graph.addEdge(c1, c2, graph.computeDistance(c1, c2), "Corridor");
+        graph.addEdge(c2, c3, graph.computeDistance(c2, c3), "Corridor");
+        graph.addEdge(c3, b, graph.computeDistance(c3, b), "Corridor");
+        graph.addEdge(c2, c4, graph.computeDistance(c2, c4), "Side");
+        graph.addEdge(c4, c, graph.computeDistance(c4, c), "Side");
+
+        // C1, C3 and C4 are chains, C2 joins three edges
+        Graph compact = graph.compact();
+        assertEquals(4, compact.getVertices().size());
+        assertNull(compact.getVertexByName("C1"));
+        assertNotNull(compact.getVertexByName("C2"));
+        assertEquals(graph.getVersion(), compact.getVersion());
+        for (Edge e : compact.getEdges(c2)) {
+            // the polyline goes from the source to the destination
+            assertEquals(e.getDestination().equals(b) ? Collections.singletonList(c3) : e.getDestination().equals(a)
+                    ? Collections.singletonList(c1) : Collections.singletonList(c4), e.getVia());
+        }
+
+        // routes cost the same, the chains are expanded again
+        Pair<List<Vertex>, Double> route = graph.getShortestPath(a, c);
+        Pair<List<Vertex>, Double> compacted = compact.getShortestPath(a, c);
+        assertEquals(route.getSecond(), compacted.getSecond(), 1e-3);
+        assertEquals(3, compacted.getFirst().size());
+        assertEquals(route.getFirst(), compact.expandPath(compacted.getFirst()));
+        assertEquals(graph.toSimpleInstructions(route.getFirst()).getFirst(),
+                compact.toSimpleInstructions(compacted.getFirst()).getFirst());
+        // the polylines are saved with the map
+        Graph copy = Graph.deserialize(Graph.serialize(compact));
+        assertEquals(route.getFirst(), copy.expandPath(copy.getShortestPath(a, c).getFirst()));
+
+        // the compacted graph is kept until the graph changes, closures apply to the edges of the chains
+        assertSame(graph.getCompactGraph(), graph.getCompactGraph());
+        double open = graph.getShortestPath(a, b).getSecond();
+        EdgeClosures closures = new EdgeClosures();
+        closures.close("Side");
+        closures.setFactor(c3, b, 3);
+        graph.setClosures(closures);
+        assertEquals(-1, graph.getCompactGraph().getShortestPath(a, c).getSecond(), 0);
+        assertEquals(graph.getShortestPath(a, b).getSecond(), graph.getCompactGraph().getShortestPath(a, b).getSecond(), 1e-3);
+        assertTrue(graph.getShortestPath(a, b).getSecond() > open);
+        graph.addEdge(a, c, 100, "Outdoor path");
+        assertEquals(100, graph.getCompactGraph().getShortestPath(a, c).getSecond(), 1e-6);
+
+        // the USI map: every route between the remaining vertices is the same
+        Graph usi = new Graph().generateUSIMap();
+        Graph usiCompact = usi.compact();
+        assertTrue(usiCompact.getVertices().size() < usi.getVertices().size());
+        for (Vertex source : usiCompact.getVertices()) {
+            for (Vertex destination : usiCompact.getVertices()) {
+                Pair<List<Vertex>, Double> expected = usi.getShortestPath(source, destination);
+                Pair<List<Vertex>, Double> actual = usiCompact.getShortestPath(source, destination);
+                // the weights of the routing snapshot are floats
+                assertEquals(expected.getSecond(), actual.getSecond(), 1e-3);
+                assertEquals(expected.getSecond(), pathWeight(usi, usiCompact.expandPath(actual.getFirst())), 1e-3);
+            }
+        }
+    }
+
+    @Test
+    public void testCompactParallelChains() {
+        // two corridors between the same rooms, the north one is shorter
+        Graph graph = new Graph("Parallel");
+        Vertex a = new Vertex("A", VertexType.ROOM, 46.0100, 8.9600, 0);
+        Vertex c1 = new Vertex("C1", VertexType.CONNECTION, 46.0101, 8.9601, 0);
+        Vertex c2 = new Vertex("C2", VertexType.CONNECTION, 46.0101, 8.9602, 0);
+        Vertex c3 = new Vertex("C3", VertexType.CONNECTION, 46.0099, 8.9602, 0);
+        Vertex b = new Vertex("B", VertexType.ROOM, 46.0100, 8.9603, 0);
+        for (Vertex v : Arrays.asList(a, c1, c2, c3, b)) {
+            graph.addVertex(v);
+        }
+        graph.addEdge(a, c1, 10, "North");
+        graph.addEdge(c1, c2, 10, "North");
+        graph.addEdge(c2, b, 10, "North");
+        graph.addEdge(a, c3, 25, "South");
+        graph.addEdge(c3, b, 25, "South");
+        Graph compact = graph.getCompactGraph();
+        assertEquals(2, compact.getEdges(a).size());
+        List<Vertex> route = compact.getShortestPath(a, b).getFirst();
+        assertEquals(Arrays.asList("A", "C1", "C2", "B"), names(compact.expandPath(route)));
+
+        // the expanded route follows the corridor the search took
+        EdgeClosures closures = new EdgeClosures();
+        closures.close("North");
+        graph.setClosures(closures);
+        Pair<List<Vertex>, Double> closed = compact.getShortestPath(a, b);
+        assertEquals(50, closed.getSecond(), 1e-3);
+        assertEquals(Arrays.asList("A", "C3", "B"), names(compact.expandPath(closed.getFirst())));
+        assertEquals(Arrays.asList("A", "C3", "B"),
+                names(compact.expandPath(closed.getFirst(), RoutingProfile.FASTEST)));
+        // and so do the instructions
+        assertFalse(compact.toSimpleInstructions(closed.getFirst(), RoutingProfile.FASTEST).getFirst().contains(c1));
+    }
+
+    @Test
+    public void testVerticesWithin() {
+        Graph graph = createCampus();
+        Vertex source = graph.getVertexByName("F1 C2,2");
+        double radius = 60;
+        List<Pair<Vertex, Double>> reached = graph.getVerticesWithin(source, radius, RoutingProfile.FASTEST, null, null);
+        assertEquals(source, reached.get(0).getFirst());
+        assertEquals(0, reached.get(0).getSecond(), 0);
+        Set<Vertex> found = new HashSet<>();
+        for (int i = 0; i < reached.size(); i++) {
+            Pair<Vertex, Double> entry = reached.get(i);
+            found.add(entry.getFirst());
+            // the cheapest first, with the cost of the cheapest path
+            if (i > 0) {
+                assertTrue(entry.getSecond() >= reached.get(i - 1).getSecond());
+            }
+            double cost = graph.getShortestPath(source, entry.getFirst(), RoutingAlgorithm.DIJKSTRA, RoutingProfile.FASTEST).getSecond();
+            assertEquals(entry.getFirst().getName(), cost, entry.getSecond(), 1e-3);
+        }
+        // every vertex within the radius is found, except outside
+        for (Vertex v : graph.getVertices()) {
+            double cost = graph.getShortestPath(source, v, RoutingAlgorithm.DIJKSTRA, RoutingProfile.FASTEST).getSecond();
+            boolean within = cost >= 0 && cost <= radius - 1e-3 && v.getType() != VertexType.OUTSIDE;
+            if (within || cost > radius + 1e-3 || cost < 0) {
+                assertEquals(v.getName(), within, found.contains(v));
+            }
+        }
+        assertTrue(found.size() > 1 && found.size() < graph.getVertices().size());
+
+        // the filters only select the vertices returned
+        Set<VertexType> rooms = Collections.singleton(VertexType.ROOM);
+        List<Pair<Vertex, Double>> roomsOnFloor = graph.getVerticesWithin(source, radius, RoutingProfile.FASTEST, rooms, 1);
+        assertFalse(roomsOnFloor.isEmpty());
+        int expected = 0;
+        for (Pair<Vertex, Double> entry : reached) {
+            if (entry.getFirst().getType() == VertexType.ROOM && entry.getFirst().getFloor() == 1) {
+                expected++;
+            }
+        }
+        assertEquals(expected, roomsOnFloor.size());
+        for (Pair<Vertex, Double> entry : roomsOnFloor) {
+            assertEquals(VertexType.ROOM, entry.getFirst().getType());
+            assertEquals(1, entry.getFirst().getFloor());
+        }
+
+        // a closed stairwell shrinks the area on the other floors
+        EdgeClosures closures = new EdgeClosures();
+        closures.close("STAIR 0");
+        closures.close("STAIR 1");
+        closures.close("ELEVATOR 2");
+        graph.setClosures(closures);
+        for (Pair<Vertex, Double> entry : graph.getVerticesWithin(source, radius, RoutingProfile.FASTEST, null, null)) {
+            assertEquals(1, entry.getFirst().getFloor());
+        }
+        assertTrue(graph.getVerticesWithin(source, -1, RoutingProfile.FASTEST, null, null).isEmpty());
+        assertTrue(graph.getVerticesWithin(new Vertex("none", VertexType.ROOM, 0, 0, 0), radius, RoutingProfile.FASTEST, null, null).isEmpty());
+    }
+
+    @Test
+    public void testNearestTargets() {
+        Graph graph = createCampus();
+        Vertex source = graph.getVertexByName("F1 C2,2");
+        assertNearestTargets(graph, source, v -> v.getType() == VertexType.STAIR, 2);
+        assertNearestTargets(graph, source, v -> v.getName().startsWith("F2 R"), 3);
+        assertNearestTargets(graph, graph.getVertexByName("F0 C3,3"), v -> v.getType() == VertexType.OUTSIDE, 1);
+        // fewer vertices than asked
+        assertNearestTargets(graph, source, v -> v.getType() == VertexType.ELEVATOR, 10);
+        assertEquals(3, graph.getNearestTargets(source, VertexType.ELEVATOR, 10, RoutingProfile.FASTEST).size());
+
+        // the source is not one of the targets
+        Vertex elevator = graph.getVertexByName("ELEVATOR 2 F1");
+        assertNearestTargets(graph, elevator, v -> v.getType() == VertexType.ELEVATOR, 2);
+        List<Pair<List<Vertex>, Double>> others = graph.getNearestTargets(elevator, VertexType.ELEVATOR, 3, RoutingProfile.FASTEST);
+        assertEquals(2, others.size());
+        for (Pair<List<Vertex>, Double> other : others) {
+            assertNotSame(elevator, other.getFirst().get(other.getFirst().size() - 1));
+            assertTrue(other.getSecond() > 0);
+        }
+        assertTrue(graph.getNearestTargets(source, VertexType.STAIR, 0, RoutingProfile.FASTEST).isEmpty());
+        assertTrue(graph.getNearestTargets(new Vertex("none", VertexType.ROOM, 0, 0, 0), VertexType.STAIR, 1, RoutingProfile.FASTEST).isEmpty());
+    }
+
+    private void assertNearestTargets(Graph graph, Vertex source, Predicate<Vertex> target, int k) {
+        // one search per candidate
+        List<Double> expected = new ArrayList<>();
+        for (Vertex v : graph.getVertices()) {
+            double cost = graph.getShortestPath(source, v, RoutingAlgorithm.DIJKSTRA, RoutingProfile.FASTEST).getSecond();
+            if (target.test(v) && cost >= 0 && v != source) {
+                expected.add(cost);
+            }
+        }
+        Collections.sort(expected);
+        List<Pair<List<Vertex>, Double>> nearest = graph.getNearestTargets(source, target, k, RoutingProfile.FASTEST);
+        assertEquals(Math.min(k, expected.size()), nearest.size());
+        for (int i = 0; i < nearest.size(); i++) {
+            List<Vertex> path = nearest.get(i).getFirst();
+            assertEquals(source, path.get(0));
+            assertTrue(target.test(path.get(path.size() - 1)));
+            assertEquals(expected.get(i), nearest.get(i).getSecond(), 1e-3);
+        }
+    }
+
+    private List<String> names(List<Vertex> path) {
+        List<String> names = new ArrayList<>();
+        for (Vertex v : path) {
+            names.add(v.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testGraphStore() throws InterruptedException {
+        GraphStore store = GraphStore.get("Store Campus");
+        assertNull(store.getSnapshot());
+        assertSame(store, GraphStore.get("Store Campus"));
+        Graph campus = createCampus();
+        Graph first = store.initialize(campus);
+        assertSame(campus, first);
+        assertSame(first, store.initialize(createCampus()));
+
+        // snapshots cannot be modified
+        assertTrue(first.isFrozen());
+        try {
+            first.addVertex(new Vertex("Intruder", VertexType.ROOM, 46.01, 8.96, 0));
+            fail("a snapshot was modified");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // an edit is published as a new snapshot, the old one does not change
+        int vertices = first.getVertices().size();
+        Graph second = store.update(graph -> graph.connectVertexToEdgeByName(
+                new Vertex("New Room", VertexType.ROOM, 46.01001, 8.96004, 0), "Corridor F0 C0,0"));
+        assertSame(second, store.getSnapshot());
+        assertTrue(second.isFrozen());
+        assertTrue(second.getVersion() > first.getVersion());
+        assertNull(first.getVertexByName("New Room"));
+        assertEquals(vertices, first.getVertices().size());
+        assertEquals(vertices + 2, second.getVertices().size());
+        assertTrue(second.getShortestPath(second.getVertexByName("New Room"), second.getVertexByName("F2 C5,5")).getSecond() > 0);
+
+        // concurrent edits are all published
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 5; i++) {
+                    final String name = "Room " + thread + "," + i;
+                    store.update(graph -> graph.addVertex(new Vertex(name, VertexType.ROOM, 46.01, 8.96, 0)));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(vertices + 2 + 20, store.getSnapshot().getVertices().size());
+    }
+
+    @Test
+    public void testRoutingExecutor() throws Exception {
+        // results are delivered on the test thread, when the queue is drained
+        final List<Runnable> mainThread = new ArrayList<>();
+        // counted down by every posted result
+        final AtomicReference<CountDownLatch> posted = new AtomicReference<>(new CountDownLatch(2));
+        RoutingExecutor executor = new RoutingExecutor(runnable -> {
+            synchronized (mainThread) {
+                mainThread.add(runnable);
+            }
+            posted.get().countDown();
+        });
+        final Graph graph = createCampus();
+        final Vertex target = graph.getVertexByName("F2 C5,5");
+        final List<String> delivered = new ArrayList<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // the first request blocks the routing thread, the second one waits behind it
+        Future<Double> first = executor.submit("screen", () -> {
+            started.countDown();
+            release.await();
+            return graph.getShortestPath(graph.getVertexByName("F0 C0,0"), target).getSecond();
+        }, result -> delivered.add("first"));
+        started.await();
+        // the second request may start once the first is cancelled, it waits too
+        Future<Double> second = executor.submit("screen", () -> {
+            release.await();
+            return 1.0;
+        }, result -> delivered.add("second"));
+        Future<Double> third = executor.submit("screen",
+                () -> graph.getShortestPath(graph.getVertexByName("F1 C2,2"), target).getSecond(),
+                result -> delivered.add("third " + result));
+        // another screen is not affected
+        Future<Double> other = executor.submit("other", () -> 2.0, result -> delivered.add("other"));
+        release.countDown();
+
+        assertTrue(first.isCancelled());
+        assertTrue(second.isCancelled());
+        double expected = graph.getShortestPath(graph.getVertexByName("F1 C2,2"), target).getSecond();
+        assertEquals(expected, third.get(), 1e-9);
+        assertEquals(2.0, other.get(), 0);
+        // the results are posted just after the futures complete
+        assertTrue(posted.get().await(5, TimeUnit.SECONDS));
+        synchronized (mainThread) {
+            for (Runnable runnable : mainThread) {
+                runnable.run();
+            }
+            mainThread.clear();
+        }
+        assertEquals(Arrays.asList("third " + expected, "other"), delivered);
+
+        // a channel cancelled after its result is posted delivers nothing
+        delivered.clear();
+        posted.set(new CountDownLatch(1));
+        executor.submit("screen", () -> 3.0, result -> delivered.add("cancelled"));
+        assertTrue(posted.get().await(5, TimeUnit.SECONDS));
+        executor.cancel("screen");
+        synchronized (mainThread) {
+            for (Runnable runnable : mainThread) {
+                runnable.run();
+            }
+            mainThread.clear();
+        }
+        assertTrue(delivered.isEmpty());
+    }
+
+    @Test
+    public void testAlternativePaths() {
+        // a small grid, where every simple path can be enumerated
+        Graph graph = new Graph("Grid");
+        Random random = new Random(7);
+        Vertex[][] grid = new Vertex[3][4];
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 4; c++) {
+                grid[r][c] = new Vertex("G" + r + "," + c, VertexType.CONNECTION, 46.01 + r * 0.0001, 8.96 + c * 0.0001, 0);
+                graph.addVertex(grid[r][c]);
+                if (r > 0) {
+                    graph.addEdge(grid[r - 1][c], grid[r][c], 10 + random.nextInt(10), "Corridor");
+                }
+                if (c > 0) {
+                    graph.addEdge(grid[r][c - 1], grid[r][c], 10 + random.nextInt(10), "Corridor");
+                }
+            }
+        }
+        Vertex source = grid[0][0];
+        Vertex destination = grid[2][3];
+        List<Double> all = new ArrayList<>();
+        enumeratePaths(graph, source, destination, new ArrayList<>(Arrays.asList(source)), 0, all);
+        Collections.sort(all);
+
+        List<Pair<List<Vertex>, Double>> paths = graph.getAlternativePaths(source, destination, RoutingProfile.SHORTEST, 8, 10, 1000);
+        assertEquals(8, paths.size());
+        Set<List<Vertex>> distinct = new HashSet<>();
+        for (int i = 0; i < paths.size(); i++) {
+            List<Vertex> path = paths.get(i).getFirst();
+            // the i-th path is as cheap as the i-th simple path
+            assertEquals(all.get(i), paths.get(i).getSecond(), 1e-6);
+            assertEquals(pathWeight(graph, path), paths.get(i).getSecond(), 1e-6);
+            assertEquals(source, path.get(0));
+            assertEquals(destination, path.get(path.size() - 1));
+            assertEquals(path.size(), new HashSet<>(path).size());
+            assertTrue(distinct.add(path));
+        }
+        assertEquals(graph.getShortestPath(source, destination).getSecond(), paths.get(0).getSecond(), 1e-6);
+
+        // the detour ratio bounds the cost of the alternatives
+        double best = all.get(0);
+        List<Pair<List<Vertex>, Double>> close = graph.getAlternativePaths(source, destination, RoutingProfile.SHORTEST, 50, 1.2, 1000);
+        int within = 0;
+        for (double cost : all) {
+            if (cost <= best * 1.2 + 1e-9) {
+                within++;
+            }
+        }
+        assertEquals(Math.min(50, within), close.size());
+        for (Pair<List<Vertex>, Double> path : close) {
+            assertTrue(path.getSecond() <= best * 1.2 + 1e-9);
+        }
+
+        // without time only the cheapest path is returned
+        assertEquals(1, graph.getAlternativePaths(source, destination, RoutingProfile.SHORTEST, 8, 10, 0).size());
+        // a step free route has no alternative through stairs on the campus
+        Graph campus = createCampus();
+        for (Pair<List<Vertex>, Double> path : campus.getAlternativePaths(campus.getVertexByName("F0 C0,0"),
+                campus.getVertexByName("F2 C5,5"), RoutingProfile.STEP_FREE, 4, 3, 1000)) {
+            for (Vertex v : path.getFirst()) {
+                assertTrue(v.getType() != VertexType.STAIR);
+            }
+        }
+    }
+
+    private void enumeratePaths(Graph graph, Vertex current, Vertex destination, List<Vertex> path, double cost, List<Double> costs) {
+        if (current.equals(destination)) {
+            costs.add(cost);
+            return;
+        }
+        for (Edge e : graph.getEdges(current)) {
+            if (!path.contains(e.getDestination())) {
+                path.add(e.getDestination());
+                enumeratePaths(graph, e.getDestination(), destination, path, cost + e.getWeight(), costs);
+                path.remove(path.size() - 1);
+            }
+        }
+    }
+
+    @Test
+    public void testTurnAwarePath() {
+        Graph graph = createCampus();
+        Vertex source = graph.getVertexByName("F0 C0,0");
+        Vertex destination = graph.getVertexByName("F2 C5,5");
+        Pair<List<Vertex>, Double> shortest = graph.getShortestPath(source, destination);
+
+        // without penalty the path is a shortest path
+        Pair<List<Vertex>, Double> free = graph.getTurnAwarePath(source, destination, RoutingProfile.SHORTEST, 0);
+        assertEquals(shortest.getSecond(), free.getSecond(), 1e-6);
+        assertEquals(pathWeight(graph, free.getFirst()), free.getSecond(), 1e-6);
+
+        // with a penalty the path turns less, and is longer by less than the penalties it saves
+        double penalty = 50;
+        Pair<List<Vertex>, Double> straight = graph.getTurnAwarePath(source, destination, RoutingProfile.SHORTEST, penalty);
+        assertEquals(source, straight.getFirst().get(0));
+        assertEquals(destination, straight.getFirst().get(straight.getFirst().size() - 1));
+        assertEquals(pathWeight(graph, straight.getFirst()), straight.getSecond(), 1e-6);
+        int turns = countTurns(graph, straight.getFirst());
+        int shortestTurns = countTurns(graph, shortest.getFirst());
+        assertTrue(turns <= shortestTurns);
+        assertTrue(straight.getSecond() + penalty * turns <= shortest.getSecond() + penalty * shortestTurns + 1e-6);
+        assertTrue(graph.toSimpleInstructions(straight.getFirst()).getSecond().size()
+                <= graph.toSimpleInstructions(shortest.getFirst()).getSecond().size());
+
+        // the step free profile is respected
+        for (Vertex v : graph.getTurnAwarePath(source, destination, RoutingProfile.STEP_FREE, penalty).getFirst()) {
+            assertTrue(v.getType() != VertexType.STAIR);
+        }
+        assertEquals(1, graph.getTurnAwarePath(source, source, RoutingProfile.SHORTEST, penalty).getFirst().size());
+    }
+
+    private int countTurns(Graph graph, List<Vertex> path) {
+        int turns = 0;
+        for (int i = 1; i < path.size() - 1; i++) {
+            double angle = Math.toDegrees(graph.getAngle(path.get(i - 1), path.get(i), path.get(i + 1)));
+            if (Math.abs(angle - 180) >= 20) {
+                turns++;
+            }
+        }
+        return turns;
+    }
+
+    @Test
+    public void testFloorOverlayMatchesDijkstra() {
+        Graph graph = createCampus();
+        List<Vertex> vertices = graph.getVertices();
+        for (RoutingProfile profile : RoutingProfile.values()) {
+            for (Vertex source : vertices) {
+                for (Vertex destination : vertices) {
+                    double dijkstra = graph.getShortestPath(source, destination, RoutingAlgorithm.DIJKSTRA, profile).getSecond();
+                    Pair<List<Vertex>, Double> overlay = graph.getShortestPath(source, destination, RoutingAlgorithm.FLOOR_OVERLAY, profile);
+                    String route = profile + " " + source.getName() + " -> " + destination.getName();
+                    assertEquals(route, dijkstra, overlay.getSecond(), 1e-6);
+                    if (overlay.getSecond() < 0) {
+                        continue;
+                    }
+                    assertEquals(route, source, overlay.getFirst().get(0));
+                    assertEquals(route, destination, overlay.getFirst().get(overlay.getFirst().size() - 1));
+                    if (profile == RoutingProfile.SHORTEST) {
+                        // the shortcuts are unpacked into consecutive edges
+                        assertEquals(route, overlay.getSecond(), pathWeight(graph, overlay.getFirst()), 1e-3);
+                    }
+                }
+            }
+        }
+        // crossing the middle floor goes through its shortcuts
+        Vertex source = graph.getVertexByName("F0 C5,0");
+        Vertex destination = graph.getVertexByName("F2 C0,5");
+        List<Vertex> path = graph.getShortestPath(source, destination, RoutingAlgorithm.FLOOR_OVERLAY).getFirst();
+        assertEquals(graph.getShortestPath(source, destination).getSecond(), pathWeight(graph, path), 1e-3);
+    }
+
+    @Test
+    public void testFloorGraph() {
+        Graph graph = createCampus();
+        Graph floor = graph.getFloorGraph(1);
+        assertEquals("Campus 1st floor", floor.getMapName());
+        int count = 0;
+        for (Vertex v : graph.getVertices()) {
+            if (v.getFloor() == 1) {
+                count++;
+                assertEquals(v, floor.getVertexByName(v.getName()));
+            }
+        }
+        assertEquals(count, floor.getVertices().size());
+        for (Edge e : floor.getEdges()) {
+            assertEquals(1, e.getDestination().getFloor());
+            assertEquals(graph.getWeight(e.getSource(), e.getDestination()), e.getWeight(), 1e-9);
+        }
+        // routes on the floor alone cannot be shorter than in the whole graph
+        List<Vertex> vertices = floor.getVertices();
+        for (Vertex source : vertices) {
+            for (Vertex destination : vertices) {
+                double onFloor = floor.getShortestPath(source, destination).getSecond();
+                if (onFloor >= 0) {
+                    assertTrue(onFloor >= graph.getShortestPath(source, destination).getSecond() - 1e-6);
+                }
+            }
+        }
+        // the ground floor has no outside vertex
+        assertNull(graph.getFloorGraph(0).getVertexByName("Outside"));
+    }
+
+    /**
+     * Returns the weight of a path, summing the lightest edge between consecutive vertices
+     */
+    private double pathWeight(Graph graph, List<Vertex> path) {
+        double weight = 0;
+        for (int i = 1; i < path.size(); i++) {
+            double lightest = Double.MAX_VALUE;
+            for (Edge e : graph.getEdges(path.get(i - 1))) {
+                if (e.getDestination().equals(path.get(i))) {
+                    lightest = Math.min(lightest, e.getWeight());
+                }
+            }
+            weight += lightest;
+        }
+        return weight;
+    }
+
     @Test
     public void testUSIMap() {
         Graph graph = new Graph().generateUSIMap();
@@ -0,0 +1,70 @@
+package com.example.usimaps.map;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class IndexedHeapTest {
+
+    @Test
+    public void testPollOrder() {
+        IndexedHeap heap = new IndexedHeap(5);
+        heap.update(3, 4.0);
+        heap.update(1, 2.0);
+        heap.update(4, 9.0);
+        heap.update(0, 7.0);
+        // decrease-key keeps a single entry per vertex
+        heap.update(4, 1.0);
+        assertEquals(4, heap.size());
+        assertTrue(heap.contains(4));
+        assertFalse(heap.contains(2));
+        assertEquals(1.0, heap.peekKey(), 0);
+
+        assertEquals(4, heap.poll());
+        assertEquals(1, heap.poll());
+        assertEquals(3, heap.poll());
+        assertEquals(0, heap.poll());
+        assertTrue(heap.isEmpty());
+        assertFalse(heap.contains(4));
+        assertEquals(Double.POSITIVE_INFINITY, heap.peekKey(), 0);
+    }
+
+    @Test
+    public void testRandomUpdates() {
+        int n = 200;
+        Random random = new Random(7);
+        IndexedHeap heap = new IndexedHeap(n);
+        double[] keys = new double[n];
+        Arrays.fill(keys, Double.NaN);
+        for (int i = 0; i < 2000; i++) {
+            int v = random.nextInt(n);
+            double key = random.nextDouble() * 100;
+            heap.update(v, key);
+            keys[v] = key;
+        }
+        double last = Double.NEGATIVE_INFINITY;
+        int count = 0;
+        while (!heap.isEmpty()) {
+            double key = heap.peekKey();
+            int v = heap.poll();
+            assertEquals(keys[v], key, 0);
+            assertTrue(key >= last);
+            last = key;
+            count++;
+        }
+        int expected = 0;
+        for (double key : keys) {
+            if (!Double.isNaN(key)) {
+                expected++;
+            }
+        }
+        assertEquals(expected, count);
+
+        heap.update(5, 1.0);
+        heap.clear();
+        assertTrue(heap.isEmpty());
+        assertFalse(heap.contains(5));
+    }
+}